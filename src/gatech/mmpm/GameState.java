@@ -28,6 +28,12 @@ public class GameState implements java.io.Serializable {
 	// game state, a component should check if the meta data has already been computed for this game state.
 	// The meta data is not copied when cloning.
 	protected HashMap<String,Object> metaData = new HashMap<String,Object>();
+
+	// Index of "entities" by entityID, so that getEntity does not need to scan the
+	// list. Since "entities" is exposed through getAllEntities(), the index is
+	// rebuilt whenever the list size no longer matches the number of indexed entities.
+	protected transient HashMap<String,Entity> entityIndex = null;
+	protected transient int indexedEntities = 0;
 	
 	public GameState() {
 	}
@@ -52,11 +58,19 @@ public class GameState implements java.io.Serializable {
 	public void addEntity(Entity e)
 	{
 		entities.add(e);
+		if (entityIndex!=null && indexedEntities==entities.size()-1) {
+			if (e.getentityID()!=null && !entityIndex.containsKey(e.getentityID())) 
+				entityIndex.put(e.getentityID(), e);
+			indexedEntities++;
+		} else {
+			entityIndex = null;
+		}
 	}
 	
 	public void clearEntities()
 	{
 		entities = new ArrayList<Entity>();
+		entityIndex = null;
 	}
 	
 	public void addMap(Map m)
@@ -76,23 +90,22 @@ public class GameState implements java.io.Serializable {
 	 */
 	public Entity getEntity(String entityID)
 	{
-		for ( Entity e : entities)
-		{
-			if ( e.getentityID().equals(entityID))
-				return e;
+		Entity e = getEntityIndex().get(entityID);
+		if (e!=null && !entityID.equals(e.getentityID())) {
+			// the ID of the entity was changed after adding it:
+			entityIndex = null;
+			e = getEntityIndex().get(entityID);
 		}
-		return null;
+		return e;
 	}
 	
 
 	public void deleteEntity(String entityID)
 	{
-		for ( Entity e : entities)
-		{
-			if ( e.getentityID().equals(entityID)) {
-				entities.remove(e);
-				return;
-			}
+		Entity e = getEntity(entityID);
+		if (e!=null) {
+			removeIndexedEntity(e);
+			return;
 		}
 
 		if (mapEntity!=null) mapEntity.deleteEntity(entityID);
@@ -101,12 +114,10 @@ public class GameState implements java.io.Serializable {
 	public void deleteEntity(Entity e)
 	{
 		if (e.getentityID()!=null) {
-			for ( Entity e2 : entities)
-			{
-				if ( e2.getentityID().equals(e.getentityID())) {
-					entities.remove(e2);
-					return;
-				}
+			Entity e2 = getEntity(e.getentityID());
+			if (e2!=null) {
+				removeIndexedEntity(e2);
+				return;
 			}
 		} // if
 		
@@ -115,6 +126,32 @@ public class GameState implements java.io.Serializable {
 		}
 	}	
 	
+	private HashMap<String,Entity> getEntityIndex() {
+		if (entityIndex==null || indexedEntities!=entities.size()) {
+			entityIndex = new HashMap<String,Entity>(entities.size()*2);
+			for(Entity e:entities) {
+				// keep the first entity with a given ID, like a linear search would
+				if (e.getentityID()!=null && !entityIndex.containsKey(e.getentityID())) 
+					entityIndex.put(e.getentityID(), e);
+			}
+			indexedEntities = entities.size();
+		}
+		return entityIndex;
+	}
+	
+	private void removeIndexedEntity(Entity e) {
+		entities.remove(e);
+		entityIndex.remove(e.getentityID());
+		indexedEntities--;
+		// another entity could share the same ID:
+		for(Entity e2:entities) {
+			if (e.getentityID().equals(e2.getentityID())) {
+				entityIndex.put(e2.getentityID(), e2);
+				break;
+			}
+		}
+	}
+	
 	//return arrayList of entities based on type
 	public ArrayList <Entity> getEntityByTypeAndOwner(Class<?> c, String owner)
 	{
@@ -4,6 +4,14 @@ import static java.lang.Math.abs;
 
 import java.util.*;
 
+import s3.ai.path.AsyncPlanner;
+import s3.ai.path.GridSearch;
+import s3.ai.path.HierarchicalMap;
+import s3.ai.path.PassabilitySnapshot;
+import s3.ai.path.PathScheduler;
+import s3.ai.path.PlannerStrategy;
+import s3.ai.path.RegionMap;
+import s3.ai.path.SearchSpace;
 import s3.base.S3;
 import s3.entities.S3PhysicalEntity;
 import s3.util.Pair;
@@ -16,6 +24,43 @@ public class AStar {
 	private final S3PhysicalEntity i_entity;
 	private final S3 the_game;
 	private final boolean goalIsValid;
+	private boolean partial = false;
+	private boolean nearestReachable = false;
+
+	/** what the path found is stored under in the PathCache. */
+	private int region = -1, footprint, startCell, goalCell;
+
+	/**
+	 * set when the path is asked for with startPath(): the search can then be
+	 * spread over several cycles (PathScheduler) or done in a planner thread
+	 * (AsyncPlanner), and is left in pending until it is done.
+	 */
+	private boolean deferred = false;
+	private GridSearch pending = null;
+	private AsyncPlanner.Request request = null;
+	private List<Pair<Double, Double>> path = null;
+
+	/**
+	 * if true, long paths are planned over the abstract graph of the map
+	 * (HierarchicalMap) and refined a part at a time.
+	 */
+	public static boolean HIERARCHICAL = true;
+
+	/**
+	 * if true, complete paths are kept in the PathCache of the game, and paths
+	 * going through a cached one reuse it instead of searching.
+	 */
+	public static boolean CACHE = true;
+
+	/**
+	 * if true, paths requested with startPath() are searched through the
+	 * PathScheduler of the game, which limits the node expansions done per
+	 * cycle: searches that do not fit in a cycle go on in the next ones.
+	 */
+	public static boolean TIME_SLICED = true;
+
+	/** how the cells of the path are searched: see PlannerStrategy. */
+	private PlannerStrategy strategy = null;
 
 	public AStar(double start_x, double start_y, double goal_x, double goal_y, S3PhysicalEntity i_entity, S3 the_game) {
 		this.start_x = start_x;
@@ -25,151 +70,357 @@ public class AStar {
 		this.i_entity = i_entity;
 		this.the_game = the_game;
 
-		int _x = i_entity.getX();
-		int _y = i_entity.getY();
-		i_entity.setX((int) goal_x);
-		i_entity.setY((int) goal_y);
-		this.goalIsValid = the_game.anyLevelCollision(i_entity) == null;
-		i_entity.setX(_x);
-		i_entity.setY(_y);
+		this.goalIsValid = the_game.isPassable(i_entity, (int) goal_x, (int) goal_y);
 	}
 
+	/**
+	 * @return the length of the shortest path between the two cells over the
+	 *         static obstacles of the map (other units are not taken into
+	 *         account), or -1 if there is none. Exact for goals asked about
+	 *         often, a lower bound otherwise: see DistanceOracle.
+	 */
 	public static int pathDistance(double start_x, double start_y, double goal_x, double goal_y,
 			S3PhysicalEntity i_entity, S3 the_game) {
-		AStar a = new AStar(start_x, start_y, goal_x, goal_y, i_entity, the_game);
-		List<Pair<Double, Double>> path = a.computePath();
-		if (path != null) {
-			return path.size();
+		int gx = (int) goal_x;
+		int gy = (int) goal_y;
+		if (gx != goal_x || gy != goal_y) {
+			return -1;
 		}
-		return -1;
+		int footprint = Math.max(i_entity.getWidth(), i_entity.getLength());
+		return the_game.getPathfinding().getDistanceOracle(footprint).distance((int) start_x, (int) start_y, gx, gy,
+				gx + 1, gy + 1);
+	}
+
+	/**
+	 * if set, when the goal cannot be reached the path goes to the reachable
+	 * cell closest to it instead (if there is one).
+	 */
+	public void setNearestReachable(boolean nearestReachable) {
+		this.nearestReachable = nearestReachable;
+	}
+
+	/**
+	 * sets how the cells of the path are searched (by default, the strategy
+	 * the game chose for its map).
+	 */
+	public void setStrategy(PlannerStrategy strategy) {
+		this.strategy = strategy;
+	}
+
+	/**
+	 * @return true if the last path computed only goes part of the way to the
+	 *         goal (a new path has to be computed once it has been followed).
+	 */
+	public boolean isPartial() {
+		return partial;
 	}
 
 	public List<Pair<Double, Double>> computePath() {
-		if (goalIsValid) {
-			// sudo code:
-			// initialize fringe
-			// while fringe not empty, pop node with the smallest cost
-			// if pop-out node is the target, stop, trace back
-			// else, expand the node
-			// add free cell nodes to the fringe
-			// if fringe is empty and no path found, return null
-			List<Cell> priorQueue = new ArrayList<>();
-			Set<String> expandedPositions = new HashSet<>();
-			Cell startCell = new Cell((int) start_x, (int) start_y, null);
-			priorQueue.add(startCell);
-			expandedPositions.add(startCell.ToString());
-			while (!priorQueue.isEmpty()) {
-				Cell currentCell = priorQueue.get(0);
-				priorQueue.remove(0);
-				if (currentCell.isGoal()) {
-					return currentCell.getPath();
-				} else {
-					for (Cell neighborCell : currentCell.getNeighbors()) {
-						if (!expandedPositions.contains(neighborCell.ToString())) {
-							priorQueue.add(neighborCell);
-							expandedPositions.add(neighborCell.ToString());
-						}
-					}
-					Collections.sort(priorQueue);
-				}
+		return computePath(HIERARCHICAL);
+	}
+
+	/**
+	 * starts planning the path. It might take a few cycles if there are too
+	 * many searches going on: the path is ready once isPlanning() is false.
+	 */
+	public void startPath() {
+		cancel();
+		deferred = TIME_SLICED || AsyncPlanner.isEnabled();
+		path = computePath(HIERARCHICAL);
+	}
+
+	/**
+	 * @return true while the path asked for with startPath() is not ready.
+	 */
+	public boolean isPlanning() {
+		if (request != null) {
+			if (!request.isDone()) {
+				return true;
 			}
-			return null;
+			GridSearch s = pending;
+			boolean discarded = request.isDiscarded();
+			pending = null;
+			request = null;
+			if (discarded) {
+				// the map changed too much since the search started
+				startPath();
+				return pending != null;
+			}
+			path = toPath(s.getResult(), the_game.getMap().getWidth());
+			store(path);
+			return false;
 		}
-		return null;
+		if (pending != null && pending.isDone()) {
+			the_game.getPathfinding().getScheduler().releaseSearchSpace(pending.getSearchSpace());
+			path = toPath(pending.getResult(), the_game.getMap().getWidth());
+			pending = null;
+			store(path);
+		}
+		return pending != null;
 	}
 
-	private class Cell implements Comparable {
-		final static int[][] MOVES = new int[][] { { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 } };
-
-		final Cell prev;
-		final int x;
-		final int y;
-		final int g;
-		final int h;
-		final int cost;
-		final String string;
+	/**
+	 * @return the path asked for with startPath(), or null if there is none
+	 *         (or it is not ready yet).
+	 */
+	public List<Pair<Double, Double>> getPath() {
+		return path;
+	}
 
-		public Cell(int x, int y, Cell prev) {
-			this.prev = prev;
-			this.x = x;
-			this.y = y;
-			this.g = prev != null ? prev.getG() + 1 : 0;
-			this.h = (int) (abs(x - goal_x) + abs(y - goal_y));
-			this.cost = this.g + this.h;
-			this.string = String.format("%d-%d", x, y);
+	/**
+	 * stops planning the path asked for with startPath().
+	 */
+	public void cancel() {
+		if (request != null) {
+			the_game.getPathfinding().getAsyncPlanner().cancel(request);
+			request = null;
+			pending = null;
 		}
-
-		public String ToString() {
-			return string;
+		if (pending != null) {
+			PathScheduler scheduler = the_game.getPathfinding().getScheduler();
+			scheduler.cancel(pending);
+			scheduler.releaseSearchSpace(pending.getSearchSpace());
+			pending = null;
 		}
+	}
 
-		public boolean isGoal() {
-			return (x == goal_x) && (y == goal_y);
+	private List<Pair<Double, Double>> computePath(boolean hierarchical) {
+		partial = false;
+		if (!goalIsValid && !nearestReachable) {
+			return null;
 		}
-
-		public Cell getPrev() {
-			return prev;
+		int width = the_game.getMap().getWidth();
+		int height = the_game.getMap().getHeight();
+		int sx = (int) start_x;
+		int sy = (int) start_y;
+		int gx = (int) goal_x;
+		int gy = (int) goal_y;
+		if (gx != goal_x || gy != goal_y || gx < 0 || gx >= width || gy < 0 || gy >= height) {
+			// no cell can match the goal
+			return null;
+		}
+		if (sx < 0 || sx >= width || sy < 0 || sy >= height) {
+			return null;
 		}
 
-		private int getX() {
-			return x;
+		// goals in another region than the start cannot be reached whatever
+		// we do, no need to search:
+		footprint = Math.max(i_entity.getWidth(), i_entity.getLength());
+		RegionMap regions = the_game.getPathfinding().getRegionMap(footprint);
+		region = regions.regionOf(sx, sy);
+		if (!goalIsValid || (region >= 0 && regions.regionOf(gx, gy) != region)) {
+			if (!nearestReachable || region < 0) {
+				return null;
+			}
+			int goal = nearestCell(regions, region, gx, gy, width, height);
+			if (goal < 0) {
+				return null;
+			}
+			gx = goal % width;
+			gy = goal / width;
 		}
 
-		private int getY() {
-			return y;
+		if (sx == gx && sy == gy) {
+			return new ArrayList<Pair<Double, Double>>();
 		}
 
-		public int getG() {
-			return g;
+		startCell = sx + sy * width;
+		goalCell = gx + gy * width;
+		if (CACHE && region >= 0) {
+			int[] cells = the_game.getPathfinding().getPathCache().get(region, goalCell, footprint, startCell);
+			if (cells != null && isFree(cells, width)) {
+				return toPath(cells, width);
+			}
+		}
+		List<Pair<Double, Double>> path;
+		if (hierarchical && abs(sx - gx) + abs(sy - gy) > 2 * HierarchicalMap.CLUSTER_SIZE) {
+			path = computeHierarchicalPath(sx, sy, gx, gy, width, height);
+		} else {
+			path = searchMap(sx, sy, gx, gy);
 		}
+		if (pending == null) {
+			store(path);
+		}
+		return path;
+	}
 
-		public int getCost() {
-			return cost;
+	/**
+	 * keeps a complete path in the PathCache.
+	 */
+	private void store(List<Pair<Double, Double>> path) {
+		if (CACHE && region >= 0 && path != null && !partial) {
+			int width = the_game.getMap().getWidth();
+			the_game.getPathfinding().getPathCache().put(region, goalCell, footprint, startCell, toCells(path, width));
 		}
+	}
 
-		public boolean isAvailable() {
-			if (x >= 0 && x < the_game.getMap().getWidth() && y >= 0 && y < the_game.getMap().getHeight()) {
-				int _x = i_entity.getX();
-				int _y = i_entity.getY();
-				i_entity.setX(x);
-				i_entity.setY(y);
-				boolean noCollision = the_game.anyLevelCollision(i_entity) == null;
-				i_entity.setX(_x);
-				i_entity.setY(_y);
-				return noCollision;
-			} else {
+	/**
+	 * @return true if the entity can stand on all the cells (cached paths are
+	 *         only valid as far as static obstacles are concerned).
+	 */
+	private boolean isFree(int[] cells, int width) {
+		for (int cell : cells) {
+			if (!isAvailable(cell % width, cell / width)) {
 				return false;
 			}
 		}
+		return true;
+	}
 
-		public List<Cell> getNeighbors() { // only return cells which is goal or free
-			List<Cell> freeNeighbors = new ArrayList<>();
-			for (int[] deltaXY : MOVES) {
-				int newX = x + deltaXY[0];
-				int newY = y + deltaXY[1];
-				Cell neighborCell = new Cell(newX, newY, this);
-				if (neighborCell.isAvailable()) {
-					freeNeighbors.add(neighborCell);
-				}
+	private static List<Pair<Double, Double>> toPath(int[] cells, int width) {
+		if (cells == null) {
+			return null;
+		}
+		List<Pair<Double, Double>> path = new ArrayList<Pair<Double, Double>>(cells.length);
+		for (int cell : cells) {
+			path.add(new Pair<Double, Double>((double) (cell % width), (double) (cell / width)));
+		}
+		return path;
+	}
 
+	private static int[] toCells(List<Pair<Double, Double>> path, int width) {
+		int[] cells = new int[path.size()];
+		int i = 0;
+		for (Pair<Double, Double> p : path) {
+			cells[i++] = p.m_a.intValue() + p.m_b.intValue() * width;
+		}
+		return cells;
+	}
+
+	/**
+	 * @return the cell of the given region closest to (gx,gy) where the entity
+	 *         can stand right now, or -1 if there is none.
+	 */
+	private int nearestCell(RegionMap regions, int region, int gx, int gy, int width, int height) {
+		for (int d = 0; d < width + height; d++) {
+			for (int dx = -d; dx <= d; dx++) {
+				int x = gx + dx;
+				if (x < 0 || x >= width) {
+					continue;
+				}
+				int dy = d - abs(dx);
+				for (int y = gy - dy; y <= gy + dy; y += Math.max(1, 2 * dy)) {
+					if (y >= 0 && y < height && regions.regionOf(x, y) == region
+							&& the_game.isPassable(i_entity, x, y)) {
+						return x + y * width;
+					}
+				}
 			}
-			return freeNeighbors;
 		}
+		return -1;
+	}
 
-		public List<Pair<Double, Double>> getPath() {
-			List<Pair<Double, Double>> path = new ArrayList<>();
-			Cell c = this;
-			while (c.prev != null) {
-				path.add(new Pair<>((double) c.getX(), (double) c.getY()));
-				c = c.getPrev();
+	/**
+	 * plans over the abstract graph of the map, and then only computes the
+	 * cells up to the first node of the abstract path that is out of the
+	 * start cluster (searching only inside the two clusters involved).
+	 */
+	private List<Pair<Double, Double>> computeHierarchicalPath(int sx, int sy, int gx, int gy, int width, int height) {
+		int footprint = Math.max(i_entity.getWidth(), i_entity.getLength());
+		HierarchicalMap hmap = the_game.getPathfinding().getHierarchicalMap(footprint);
+		int[] waypoints = hmap.findPath(sx, sy, gx, gy);
+		if (waypoints == null) {
+			// not even the terrain and the buildings let us get there
+			return null;
+		}
+		int startCluster = hmap.clusterOf(sx, sy);
+		int tries = 0;
+		for (int i = 0; i < waypoints.length && tries < 2; i++) {
+			int wx = waypoints[i] % width;
+			int wy = waypoints[i] / width;
+			int cluster = hmap.clusterOf(wx, wy);
+			if (cluster == startCluster || !the_game.isPassable(i_entity, wx, wy)) {
+				continue;
+			}
+			tries++;
+			int size = HierarchicalMap.CLUSTER_SIZE;
+			int x0 = Math.min(sx, wx) / size * size;
+			int y0 = Math.min(sy, wy) / size * size;
+			int x1 = Math.min(width, (Math.max(sx, wx) / size + 1) * size);
+			int y1 = Math.min(height, (Math.max(sy, wy) / size + 1) * size);
+			List<Pair<Double, Double>> path = search(sx, sy, wx, wy, x0, y0, x1, y1);
+			if (path != null) {
+				partial = (waypoints[i] != gx + gy * width);
+				return path;
 			}
-			Collections.reverse(path);
-			return path;
 		}
+		// troops are in the way of the abstract path, look for a way around
+		// them on the whole map:
+		return searchMap(sx, sy, gx, gy);
+	}
+
+	/**
+	 * searches the whole map. When the path was asked for with startPath(),
+	 * the search might not be done when this returns null: then it is left in
+	 * pending.
+	 */
+	private List<Pair<Double, Double>> searchMap(int sx, int sy, int gx, int gy) {
+		int width = the_game.getMap().getWidth();
+		int height = the_game.getMap().getHeight();
+		if (!deferred) {
+			return search(sx, sy, gx, gy, 0, 0, width, height);
+		}
+		if (AsyncPlanner.isEnabled()) {
+			AsyncPlanner planner = the_game.getPathfinding().getAsyncPlanner();
+			GridSearch s = newSearch(sx, sy, gx, gy, 0, 0, width, height, planner.getSnapshot(the_game.getUnits()));
+			request = planner.submit(s);
+			pending = s;
+			return null;
+		}
+		PathScheduler scheduler = the_game.getPathfinding().getScheduler();
+		GridSearch s = newSearch(sx, sy, gx, gy, 0, 0, width, height, null);
+		s.begin(scheduler.getSearchSpace(width * height));
+		scheduler.submit(s);
+		if (s.isDone()) {
+			scheduler.releaseSearchSpace(s.getSearchSpace());
+			return toPath(s.getResult(), width);
+		}
+		pending = s;
+		return null;
+	}
+
+	private List<Pair<Double, Double>> search(int sx, int sy, int gx, int gy, int x0, int y0, int x1, int y1) {
+		int width = the_game.getMap().getWidth();
+		GridSearch s = newSearch(sx, sy, gx, gy, x0, y0, x1, y1, null);
+		s.begin(SearchSpace.get(width * the_game.getMap().getHeight()));
+		int expansions = s.advance(Integer.MAX_VALUE);
+		if (deferred) {
+			the_game.getPathfinding().getScheduler().charge(expansions);
+		}
+		return toPath(s.getResult(), width);
+	}
 
-		@Override
-		public int compareTo(Object o) {
-			return o instanceof Cell ? Integer.compare(this.getCost(), ((Cell) o).getCost()) : 0;
+	/**
+	 * @param snapshot what the search reads instead of the game if it is run
+	 *                 in a planner thread, or null.
+	 */
+	private GridSearch newSearch(int sx, int sy, int gx, int gy, int x0, int y0, int x1, int y1,
+			final PassabilitySnapshot snapshot) {
+		GridSearch.Passability passability;
+		if (snapshot != null) {
+			final int entityID = i_entity.entityID;
+			final int entityWidth = i_entity.getWidth();
+			final int entityLength = i_entity.getLength();
+			passability = new GridSearch.Passability() {
+				public boolean isPassable(int x, int y) {
+					return snapshot.isPassable(entityID, x, y, entityWidth, entityLength);
+				}
+			};
+		} else {
+			passability = new GridSearch.Passability() {
+				public boolean isPassable(int x, int y) {
+					return isAvailable(x, y);
+				}
+			};
+		}
+		if (strategy == null) {
+			strategy = the_game.getPathfinding().getPlannerStrategy();
 		}
+		return strategy.newSearch(sx, sy, gx, gy, x0, y0, x1, y1, the_game.getMap().getWidth(),
+				the_game.getMap().getHeight(), passability);
+	}
+
+	private boolean isAvailable(int x, int y) {
+		return the_game.isPassable(i_entity, x, y);
 	}
-}
\ No newline at end of file
+}
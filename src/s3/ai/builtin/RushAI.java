@@ -168,16 +168,7 @@ public class RushAI implements AI {
 			return;
 		}
 
-		List<WUnit> mines = game.getUnitTypes(null, WGoldMine.class);
-		WGoldMine mine = null;
-		int leastDist = 9999;
-		for (WUnit unit : mines) {
-			int dist = Math.abs(unit.getX() - peasant.getX()) + Math.abs(unit.getY() - peasant.getY());
-			if (dist < leastDist) {
-				leastDist = dist;
-				mine = (WGoldMine) unit;
-			}
-		}
+		WGoldMine mine = game.nearestGoldMine(peasant.getX(), peasant.getY());
 		if (null != mine) {
 			actions.add(new S3Action(peasant.entityID, S3Action.ACTION_HARVEST, mine.entityID));
 		}
@@ -0,0 +1,38 @@
+package s3.ai.path;
+
+/**
+ * Plain A*: every neighbour of an expanded cell gets queued. Cells the entity
+ * cannot stand on are closed the first time they are looked at, so that they
+ * are not asked about again during the search.
+ */
+public class AStarSearch extends GridSearch {
+	private static final int[][] MOVES = new int[][] { { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 } };
+
+	public AStarSearch(int sx, int sy, int gx, int gy, int x0, int y0, int x1, int y1, int width, int height,
+			Passability passability) {
+		super(sx, sy, gx, gy, x0, y0, x1, y1, width, height, passability);
+	}
+
+	protected void expand(int current) {
+		int x = current % width;
+		int y = current / width;
+		int g = space.getG(current) + 1;
+		for (int i = 0; i < MOVES.length; i++) {
+			int nx = x + MOVES[i][0];
+			int ny = y + MOVES[i][1];
+			if (nx < x0 || nx >= x1 || ny < y0 || ny >= y1) {
+				continue;
+			}
+			int next = nx + ny * width;
+			if (space.isClosed(next)) {
+				continue;
+			}
+			if (!space.isSeen(next) && !isAvailable(nx, ny)) {
+				// never look at it again during this search:
+				space.close(next);
+				continue;
+			}
+			relax(next, nx, ny, g, current);
+		}
+	}
+}
@@ -0,0 +1,156 @@
+package s3.ai.path;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import s3.base.S3ClearanceMap;
+import s3.entities.WUnit;
+
+/**
+ * Runs path searches on a pool of planner threads (shared by all games),
+ * so that the game thread does not have to wait for them.
+ *
+ * Searches asked for during a cycle all read the same PassabilitySnapshot,
+ * taken when the first of them is submitted, and their results are handed
+ * over at the start of the next cycle, in the order they were asked for
+ * (waiting for the ones that are not done yet). So what the game sees does
+ * not depend on how fast the planner threads are, or on how many there are.
+ * A result is thrown away if more than VERSION_TOLERANCE changes were done
+ * to the static obstacles of the map since the snapshot was taken.
+ */
+public class AsyncPlanner {
+	/** number of planner threads; 0 means searches are done in the game thread. */
+	public static int THREADS = 0;
+
+	public static int VERSION_TOLERANCE = 4;
+
+	private static ExecutorService pool = null;
+
+	/**
+	 * a search submitted to the planner threads. isDone() becomes true at the
+	 * start of the next cycle.
+	 */
+	public static class Request {
+		private final int version;
+		private Future<?> future;
+		private boolean done = false, discarded = false;
+
+		private Request(int version) {
+			this.version = version;
+		}
+
+		public boolean isDone() {
+			return done;
+		}
+
+		/**
+		 * @return true if the map changed too much while searching: the result
+		 *         should not be used.
+		 */
+		public boolean isDiscarded() {
+			return discarded;
+		}
+	}
+
+	private final S3ClearanceMap clearance;
+	private final List<Request> requests = new LinkedList<Request>();
+	private PassabilitySnapshot snapshot = null;
+
+	private long submitted = 0, discarded = 0, snapshots = 0, waits = 0;
+
+	public AsyncPlanner(S3ClearanceMap clearance) {
+		this.clearance = clearance;
+	}
+
+	public static boolean isEnabled() {
+		return THREADS > 0;
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+				private int n = 0;
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "planner-" + (n++));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+
+	/**
+	 * @return the snapshot the searches submitted during this cycle read.
+	 */
+	public PassabilitySnapshot getSnapshot(List<WUnit> units) {
+		if (snapshot == null) {
+			snapshot = new PassabilitySnapshot(clearance, units);
+			snapshots++;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * queues a search, which must only read the snapshot of this cycle.
+	 */
+	public Request submit(Runnable search) {
+		Request r = new Request(snapshot == null ? clearance.getVersion() : snapshot.getVersion());
+		r.future = getPool().submit(search);
+		requests.add(r);
+		submitted++;
+		return r;
+	}
+
+	/**
+	 * forgets a search that is no longer needed.
+	 */
+	public void cancel(Request r) {
+		if (requests.remove(r)) {
+			r.future.cancel(false);
+		}
+	}
+
+	/**
+	 * to be called at the start of every game cycle: hands over the results of
+	 * the searches submitted during the previous one.
+	 */
+	public void cycle() {
+		snapshot = null;
+		for (Iterator<Request> i = requests.iterator(); i.hasNext();) {
+			Request r = i.next();
+			i.remove();
+			try {
+				if (!r.future.isDone()) {
+					waits++;
+				}
+				r.future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				r.discarded = true;
+			} catch (ExecutionException e) {
+				e.getCause().printStackTrace();
+				r.discarded = true;
+			}
+			if (clearance.getVersion() - r.version > VERSION_TOLERANCE) {
+				r.discarded = true;
+			}
+			if (r.discarded) {
+				discarded++;
+			}
+			r.done = true;
+		}
+	}
+
+	public String toString() {
+		return "AsyncPlanner: " + submitted + " searches on " + THREADS + " threads, " + snapshots + " snapshots, "
+				+ waits + " waited for, " + discarded + " discarded";
+	}
+}
@@ -0,0 +1,216 @@
+package s3.ai.path;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import s3.base.S3;
+import s3.entities.S3PhysicalEntity;
+
+/**
+ * Windowed hierarchical cooperative A* (WHCA*, Silver 2005): units plan the
+ * next WINDOW steps of their way in space and time, against the cells the
+ * other units have reserved for the cycles they will be there, and then
+ * reserve theirs. So units going through a corridor at the same time plan
+ * around each other (waiting or stepping aside) instead of bumping into each
+ * other and replanning.
+ *
+ * Time is counted in game cycles: a unit moving every "speed" cycles that
+ * steps into a cell at cycle t keeps it until t + speed. Moves into a cell
+ * reserved by someone else during that time are not allowed, nor are two
+ * units swapping cells. Units that do not reserve anything (idle units,
+ * units moving on their own) are only taken into account for the first step.
+ *
+ * The search only covers the window (at most WINDOW steps, waiting included),
+ * so its cost per unit does not depend on how far the goal is: the distance
+ * left from the end of the window is taken from the flow field of the goal.
+ */
+public class CooperativePlanner {
+	public static int WINDOW = 8;
+
+	private static final int[][] MOVES = new int[][] { { 0, 0 }, { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 } };
+
+	private final Pathfinding pathfinding;
+	private final int width;
+
+	/** (cycle, cell) -> entityID of the unit that will be there. */
+	private final HashMap<Long, Integer> reservations = new HashMap<Long, Integer>();
+	private final HashMap<Integer, List<Long>> reservedBy = new HashMap<Integer, List<Long>>();
+
+	/** search state of the window: nodes are (step, cell around the start). */
+	private final int window, side;
+	private final NodeHeap open;
+	private final int[] g, parent, seen;
+	private int generation = 0;
+
+	private long plans = 0, failures = 0, expansions = 0;
+
+	CooperativePlanner(Pathfinding pathfinding, int width) {
+		this.pathfinding = pathfinding;
+		this.width = width;
+		window = WINDOW;
+		side = 2 * window + 1;
+		int nodes = (window + 1) * side * side;
+		open = new NodeHeap(nodes);
+		g = new int[nodes];
+		parent = new int[nodes];
+		seen = new int[nodes];
+	}
+
+	/**
+	 * plans the next steps of the entity towards (gx,gy) and reserves them.
+	 * The first step is taken at the current cycle of the game, and the next
+	 * ones every "speed" cycles.
+	 *
+	 * @return the cells the entity is in after each step (the same cell twice
+	 *         in a row means waiting), or null if the goal cannot be reached.
+	 */
+	public int[] plan(S3 game, S3PhysicalEntity entity, int gx, int gy, int speed) {
+		release(entity.entityID);
+		plans++;
+		int footprint = Math.max(entity.getWidth(), entity.getLength());
+		FlowField field = pathfinding.getFlowFields().get(gx, gy, footprint);
+		int sx = entity.getX();
+		int sy = entity.getY();
+		if (field == null || field.distance(sx, sy) < 0) {
+			failures++;
+			return null;
+		}
+		int now = game.getCycle();
+		int me = entity.entityID;
+		int goal = gx + gy * width;
+		int layer = side * side;
+
+		generation++;
+		open.clear();
+		int order = 0;
+		int startNode = node(0, sx, sy, sx, sy);
+		visit(startNode, 0, -1);
+		open.put(startNode, key(field.distance(sx, sy), order++));
+		int end = -1;
+		while (!open.isEmpty()) {
+			int n = open.poll();
+			expansions++;
+			int k = n / layer;
+			int x = sx + (n % layer) % side - window;
+			int y = sy + (n % layer) / side - window;
+			if (k == window || x + y * width == goal) {
+				end = n;
+				break;
+			}
+			int t0 = now + k * speed;
+			for (int i = 0; i < MOVES.length; i++) {
+				int nx = x + MOVES[i][0];
+				int ny = y + MOVES[i][1];
+				int d = field.distance(nx, ny);
+				if (d < 0) {
+					continue;
+				}
+				if (k == 0 && i != 0 && !game.isPassable(entity, nx, ny)) {
+					continue;
+				}
+				if (!isFree(nx + ny * width, x + y * width, t0, speed, me)) {
+					continue;
+				}
+				int next = node(k + 1, nx, ny, sx, sy);
+				int cost = g[n] + 1;
+				if (seen[next] == generation && cost >= g[next]) {
+					continue;
+				}
+				visit(next, cost, n);
+				open.put(next, key(cost + d, order++));
+			}
+		}
+		if (end < 0) {
+			failures++;
+			return null;
+		}
+
+		int steps = end / layer;
+		int[] cells = new int[steps];
+		for (int n = end; n != startNode; n = parent[n]) {
+			int x = sx + (n % layer) % side - window;
+			int y = sy + (n % layer) / side - window;
+			cells[n / layer - 1] = x + y * width;
+		}
+		List<Long> keys = new LinkedList<Long>();
+		for (int k = 0; k < steps; k++) {
+			reserve(cells[k], now + k * speed, speed, me, keys);
+		}
+		if (steps < window && steps > 0) {
+			// at the goal: stay there for the rest of the window
+			reserve(cells[steps - 1], now + steps * speed, (window - steps) * speed, me, keys);
+		}
+		reservedBy.put(me, keys);
+		return cells;
+	}
+
+	/**
+	 * forgets the reservations of an entity.
+	 */
+	public void release(int entityID) {
+		List<Long> keys = reservedBy.remove(entityID);
+		if (keys != null) {
+			for (Long k : keys) {
+				if (Integer.valueOf(entityID).equals(reservations.get(k))) {
+					reservations.remove(k);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if an entity with the given speed can go from cell "from"
+	 *         to cell "to" at cycle t0 and stay there until t0 + speed.
+	 */
+	private boolean isFree(int to, int from, int t0, int speed, int me) {
+		for (int t = t0; t < t0 + speed; t++) {
+			Integer other = reservations.get(reservationKey(t, to));
+			if (other != null && other != me) {
+				return false;
+			}
+		}
+		if (to != from) {
+			// someone coming the other way:
+			Integer other = reservations.get(reservationKey(t0 - 1, to));
+			if (other != null && other != me && other.equals(reservations.get(reservationKey(t0, from)))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void reserve(int cell, int t0, int cycles, int me, List<Long> keys) {
+		for (int t = t0; t < t0 + cycles; t++) {
+			Long k = reservationKey(t, cell);
+			if (!reservations.containsKey(k)) {
+				reservations.put(k, me);
+				keys.add(k);
+			}
+		}
+	}
+
+	private int node(int k, int x, int y, int sx, int sy) {
+		return k * side * side + (x - sx + window) + (y - sy + window) * side;
+	}
+
+	private void visit(int node, int cost, int parentNode) {
+		seen[node] = generation;
+		g[node] = cost;
+		parent[node] = parentNode;
+	}
+
+	private static long key(int f, int order) {
+		return ((long) f << 32) | order;
+	}
+
+	private static Long reservationKey(int cycle, int cell) {
+		return ((long) cycle << 32) | cell;
+	}
+
+	public String toString() {
+		return "CooperativePlanner: " + plans + " windows planned, " + failures + " failed, "
+				+ (plans == 0 ? 0 : expansions / plans) + " expansions per window, " + reservations.size()
+				+ " reservations";
+	}
+}
@@ -0,0 +1,211 @@
+package s3.ai.path;
+
+import static java.lang.Math.abs;
+
+import java.util.Arrays;
+
+import s3.base.S3;
+import s3.base.S3ClearanceMap;
+import s3.entities.S3PhysicalEntity;
+
+/**
+ * D* Lite (Koenig and Likhachev): a search from the goal back to the entity
+ * that is kept from one step to the next, so that when cells get blocked or
+ * free up only the part of the search that depends on them is redone, instead
+ * of searching again from scratch.
+ *
+ * It starts from what blocks each cell statically (terrain and buildings);
+ * at every step the cells around the entity are looked at again (taking
+ * other units into account) and the ones that changed are repaired. Cells
+ * further away are assumed to stay as they were last seen.
+ *
+ * Instances are big (a few arrays the size of the map), so they are pooled
+ * in Pathfinding: see Pathfinding.getReplanner()/releaseReplanner().
+ */
+public class DStarLite {
+	/** how far from the entity cells are checked at every step. */
+	public static int SENSE_RADIUS = 2;
+
+	private static final int INFINITY = 1 << 29;
+	private static final int[][] MOVES = new int[][] { { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 } };
+
+	private final S3ClearanceMap clearance;
+	private final int width, height;
+	private final int[] g, rhs;
+	private final boolean[] blocked;
+	private final NodeHeap open;
+
+	private int goal = -1, footprint;
+	private int start, last;
+	private int km;
+	private int expansions;
+
+	DStarLite(S3ClearanceMap clearance) {
+		this.clearance = clearance;
+		width = clearance.getWidth();
+		height = clearance.getHeight();
+		g = new int[width * height];
+		rhs = new int[width * height];
+		blocked = new boolean[width * height];
+		open = new NodeHeap(width * height);
+	}
+
+	/**
+	 * forgets the previous search, and gets ready to plan towards (gx,gy) from
+	 * (sx,sy). A goal outside of the map cannot be reached: nextStep() then
+	 * always returns -1.
+	 */
+	void reset(int sx, int sy, int gx, int gy, int footprint) {
+		this.footprint = footprint;
+		goal = (gx >= 0 && gy >= 0 && gx < width && gy < height ? gx + gy * width : -1);
+		start = last = sx + sy * width;
+		km = 0;
+		Arrays.fill(g, INFINITY);
+		Arrays.fill(rhs, INFINITY);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				blocked[x + y * width] = !clearance.isFree(x, y, footprint, footprint);
+			}
+		}
+		open.clear();
+		if (goal >= 0) {
+			rhs[goal] = 0;
+			open.put(goal, key(goal));
+		}
+	}
+
+	public int getGoalX() {
+		return goal >= 0 ? goal % width : -1;
+	}
+
+	public int getGoalY() {
+		return goal >= 0 ? goal / width : -1;
+	}
+
+	public int getFootprint() {
+		return footprint;
+	}
+
+	/**
+	 * @return the number of nodes expanded since the last call.
+	 */
+	public int takeExpansions() {
+		int e = expansions;
+		expansions = 0;
+		return e;
+	}
+
+	/**
+	 * updates the search for an entity that is now at (x,y), after looking at
+	 * the cells around it.
+	 *
+	 * @return the neighbour of (x,y) to move to next, or -1 if, as far as the
+	 *         entity knows, the goal cannot be reached right now.
+	 */
+	public int nextStep(int x, int y, S3PhysicalEntity entity, S3 game) {
+		start = x + y * width;
+		km += h(last, start);
+		last = start;
+
+		for (int cy = Math.max(0, y - SENSE_RADIUS); cy <= Math.min(height - 1, y + SENSE_RADIUS); cy++) {
+			for (int cx = Math.max(0, x - SENSE_RADIUS); cx <= Math.min(width - 1, x + SENSE_RADIUS); cx++) {
+				int c = cx + cy * width;
+				boolean b = (c != start && !game.isPassable(entity, cx, cy));
+				if (b != blocked[c]) {
+					blocked[c] = b;
+					updateVertex(c);
+					for (int i = 0; i < MOVES.length; i++) {
+						int n = neighbour(c, i);
+						if (n >= 0) {
+							updateVertex(n);
+						}
+					}
+				}
+			}
+		}
+		computeShortestPath();
+
+		int best = -1;
+		int bestG = INFINITY;
+		for (int i = 0; i < MOVES.length; i++) {
+			int n = neighbour(start, i);
+			if (n >= 0 && !blocked[n] && g[n] < bestG) {
+				best = n;
+				bestG = g[n];
+			}
+		}
+		return best;
+	}
+
+	private void computeShortestPath() {
+		while (!open.isEmpty() && (open.peekKey() < key(start) || rhs[start] != g[start])) {
+			long oldKey = open.peekKey();
+			int u = open.peek();
+			long newKey = key(u);
+			expansions++;
+			if (oldKey < newKey) {
+				open.put(u, newKey);
+			} else if (g[u] > rhs[u]) {
+				g[u] = rhs[u];
+				open.remove(u);
+				for (int i = 0; i < MOVES.length; i++) {
+					int n = neighbour(u, i);
+					if (n >= 0) {
+						updateVertex(n);
+					}
+				}
+			} else {
+				g[u] = INFINITY;
+				updateVertex(u);
+				for (int i = 0; i < MOVES.length; i++) {
+					int n = neighbour(u, i);
+					if (n >= 0) {
+						updateVertex(n);
+					}
+				}
+			}
+		}
+	}
+
+	private void updateVertex(int u) {
+		if (u != goal) {
+			int best = INFINITY;
+			if (!blocked[u]) {
+				for (int i = 0; i < MOVES.length; i++) {
+					int n = neighbour(u, i);
+					if (n >= 0 && !blocked[n] && g[n] + 1 < best) {
+						best = g[n] + 1;
+					}
+				}
+			}
+			rhs[u] = best;
+		}
+		if (g[u] != rhs[u]) {
+			open.put(u, key(u));
+		} else if (open.contains(u)) {
+			open.remove(u);
+		}
+	}
+
+	/**
+	 * @return the neighbour of cell c in direction i, or -1 if it is out of the
+	 *         map.
+	 */
+	private int neighbour(int c, int i) {
+		int nx = c % width + MOVES[i][0];
+		int ny = c / width + MOVES[i][1];
+		if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+			return -1;
+		}
+		return nx + ny * width;
+	}
+
+	private long key(int u) {
+		int m = Math.min(g[u], rhs[u]);
+		return ((long) (m + h(start, u) + km) << 32) | m;
+	}
+
+	private int h(int a, int b) {
+		return abs(a % width - b % width) + abs(a / width - b / width);
+	}
+}
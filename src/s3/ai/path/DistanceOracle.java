@@ -0,0 +1,258 @@
+package s3.ai.path;
+
+import static java.lang.Math.abs;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import s3.base.S3ClearanceMap;
+
+/**
+ * Answers "how far is this from that" over static obstacles (terrain and
+ * buildings) without searching, for AI code ranking targets: which mine is
+ * closest to this peasant, which enemy is closest to this footman...
+ *
+ * Targets are rectangles (the cells from which a unit is in range, say), and
+ * the distance is the number of steps to the closest free cell of the
+ * rectangle. For targets asked about MIN_QUERIES times or more, a distance map
+ * (breadth first from the whole rectangle) is kept, and answers are exact
+ * and cost one array read. For other targets the answer is a lower bound
+ * from a few landmarks (ALT: by the triangle inequality, d(s,t) is at least
+ * |d(L,s) - d(L,t)| for any landmark L), or the Manhattan distance, whichever
+ * is larger.
+ *
+ * Distance maps are computed again when the static obstacles of the map
+ * change (when they are next needed), and landmarks once it changed more than
+ * LANDMARK_TOLERANCE times.
+ */
+public class DistanceOracle {
+	public static int LANDMARKS = 8;
+	public static int MAX_MAPS = 32;
+	public static int MIN_QUERIES = 2;
+
+	/**
+	 * changes to the map after which the landmarks are computed again (the
+	 * bounds are only estimates in between, which is enough for ranking).
+	 */
+	public static int LANDMARK_TOLERANCE = 64;
+
+	private final S3ClearanceMap clearance;
+	private final RegionMap regions;
+	private final int footprint;
+	private final int width, height;
+
+	/** a distance map towards a rectangle, and the map version it is for. */
+	private static class DistanceMap {
+		int[] distance;
+		int version;
+		int queries = 0;
+	}
+
+	private final LinkedHashMap<Long, DistanceMap> maps = new LinkedHashMap<Long, DistanceMap>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Long, DistanceMap> eldest) {
+			if (size() > MAX_MAPS * 4) {
+				if (eldest.getValue().distance != null) {
+					builtMaps--;
+				}
+				return true;
+			}
+			return false;
+		}
+	};
+	private int builtMaps = 0;
+
+	private int[][] landmarks = null;
+	private int landmarkVersion = -1;
+
+	private long exact = 0, bounds = 0, mapsBuilt = 0, landmarkBuilds = 0;
+
+	public DistanceOracle(S3ClearanceMap clearance, RegionMap regions, int footprint) {
+		this.clearance = clearance;
+		this.regions = regions;
+		this.footprint = footprint;
+		width = clearance.getWidth();
+		height = clearance.getHeight();
+	}
+
+	/**
+	 * @return the number of steps from (sx,sy) to the closest free cell of the
+	 *         rectangle [x0,x1) x [y0,y1): exact if the rectangle is asked
+	 *         about often, or a lower bound otherwise. -1 if none of the cells
+	 *         of the rectangle can be reached from (sx,sy).
+	 */
+	public int distance(int sx, int sy, int x0, int y0, int x1, int y1) {
+		x0 = Math.max(0, x0);
+		y0 = Math.max(0, y0);
+		x1 = Math.min(width, x1);
+		y1 = Math.min(height, y1);
+		int region = regions.regionOf(sx, sy);
+		if (region < 0 || x0 >= x1 || y0 >= y1) {
+			return -1;
+		}
+		if (x0 <= sx && sx < x1 && y0 <= sy && sy < y1) {
+			return 0;
+		}
+
+		Long k = key(x0, y0, x1, y1);
+		DistanceMap m = maps.get(k);
+		if (m == null) {
+			m = new DistanceMap();
+			maps.put(k, m);
+		}
+		m.queries++;
+		if (m.queries >= MIN_QUERIES) {
+			if (m.distance == null || m.version != clearance.getVersion()) {
+				if (m.distance == null && builtMaps >= MAX_MAPS) {
+					dropOldestMap();
+				}
+				if (m.distance == null) {
+					builtMaps++;
+				}
+				m.distance = bfs(x0, y0, x1, y1, m.distance);
+				m.version = clearance.getVersion();
+				mapsBuilt++;
+			}
+			exact++;
+			return m.distance[sx + sy * width];
+		}
+
+		bounds++;
+		int best = -1;
+		for (int y = y0; y < y1; y++) {
+			for (int x = x0; x < x1; x++) {
+				if (regions.regionOf(x, y) == region) {
+					int d = lowerBound(sx, sy, x, y);
+					if (best < 0 || d < best) {
+						best = d;
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return a lower bound of the number of steps between two cells of the
+	 *         same region.
+	 */
+	public int lowerBound(int sx, int sy, int gx, int gy) {
+		if (landmarks == null || clearance.getVersion() - landmarkVersion > LANDMARK_TOLERANCE) {
+			computeLandmarks();
+		}
+		int s = sx + sy * width;
+		int g = gx + gy * width;
+		int best = abs(sx - gx) + abs(sy - gy);
+		for (int[] l : landmarks) {
+			if (l[s] >= 0 && l[g] >= 0) {
+				best = Math.max(best, abs(l[s] - l[g]));
+			}
+		}
+		return best;
+	}
+
+	private void dropOldestMap() {
+		for (DistanceMap m : maps.values()) {
+			if (m.distance != null) {
+				m.distance = null;
+				m.queries = 0;
+				builtMaps--;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * picks the landmarks as far from each other as possible: each one is the
+	 * cell furthest from the closest of the previous ones (cells that none of
+	 * them can reach first, so that every region gets some).
+	 */
+	private void computeLandmarks() {
+		landmarkBuilds++;
+		int[][] l = new int[LANDMARKS][];
+		int[] closest = new int[width * height];
+		Arrays.fill(closest, Integer.MAX_VALUE);
+		int n = 0;
+		while (n < LANDMARKS) {
+			int next = -1;
+			int nextDistance = -1;
+			for (int c = 0; c < width * height; c++) {
+				if (closest[c] > nextDistance && clearance.isFree(c % width, c / width, footprint, footprint)) {
+					next = c;
+					nextDistance = closest[c];
+				}
+			}
+			if (next < 0) {
+				break;
+			}
+			l[n] = bfs(next % width, next / width, next % width + 1, next / width + 1, null);
+			for (int c = 0; c < width * height; c++) {
+				if (l[n][c] >= 0 && l[n][c] < closest[c]) {
+					closest[c] = l[n][c];
+				}
+			}
+			n++;
+		}
+		landmarks = Arrays.copyOf(l, n);
+		landmarkVersion = clearance.getVersion();
+	}
+
+	/**
+	 * @return the number of steps from every cell to the closest free cell of
+	 *         the rectangle, or -1 for cells that cannot reach it.
+	 */
+	private int[] bfs(int x0, int y0, int x1, int y1, int[] distance) {
+		if (distance == null) {
+			distance = new int[width * height];
+		}
+		Arrays.fill(distance, -1);
+		int[] queue = new int[width * height];
+		int head = 0, tail = 0;
+		for (int y = y0; y < y1; y++) {
+			for (int x = x0; x < x1; x++) {
+				if (clearance.isFree(x, y, footprint, footprint)) {
+					distance[x + y * width] = 0;
+					queue[tail++] = x + y * width;
+				}
+			}
+		}
+		while (head < tail) {
+			int c = queue[head++];
+			int x = c % width;
+			int y = c / width;
+			if (x > 0) {
+				tail = visit(c - 1, x - 1, y, distance[c] + 1, distance, queue, tail);
+			}
+			if (x + 1 < width) {
+				tail = visit(c + 1, x + 1, y, distance[c] + 1, distance, queue, tail);
+			}
+			if (y > 0) {
+				tail = visit(c - width, x, y - 1, distance[c] + 1, distance, queue, tail);
+			}
+			if (y + 1 < height) {
+				tail = visit(c + width, x, y + 1, distance[c] + 1, distance, queue, tail);
+			}
+		}
+		return distance;
+	}
+
+	private int visit(int c, int x, int y, int d, int[] distance, int[] queue, int tail) {
+		if (distance[c] < 0 && clearance.isFree(x, y, footprint, footprint)) {
+			distance[c] = d;
+			queue[tail++] = c;
+		}
+		return tail;
+	}
+
+	private Long key(int x0, int y0, int x1, int y1) {
+		return (((long) (x0 + y0 * width)) << 32) | (x1 + y1 * width);
+	}
+
+	public String toString() {
+		return "DistanceOracle(" + footprint + "): " + exact + " exact answers, " + bounds + " lower bounds, "
+				+ mapsBuilt + " distance maps built (" + builtMaps + " kept), " + landmarkBuilds
+				+ " landmark computations";
+	}
+}
@@ -0,0 +1,105 @@
+package s3.ai.path;
+
+import java.util.Arrays;
+
+import s3.base.S3;
+import s3.base.S3ClearanceMap;
+import s3.entities.S3PhysicalEntity;
+
+/**
+ * Distance to a goal cell from every cell of the map, for entities with a
+ * given footprint, considering only static obstacles (terrain and buildings).
+ * Any number of entities going to the goal can follow it by always stepping
+ * to a neighbour closer to the goal, instead of each of them searching for a
+ * path.
+ */
+public class FlowField {
+	private static final int[][] MOVES = new int[][] { { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 } };
+
+	private final int width, height;
+	private final int goal;
+	private final int footprint;
+
+	/** number of steps from each cell to the goal, or -1 if it cannot get there. */
+	private final int[] distance;
+
+	FlowField(S3ClearanceMap clearance, int gx, int gy, int footprint) {
+		width = clearance.getWidth();
+		height = clearance.getHeight();
+		goal = gx + gy * width;
+		this.footprint = footprint;
+		distance = new int[width * height];
+		Arrays.fill(distance, -1);
+
+		// breadth first from the goal:
+		int[] queue = new int[width * height];
+		int head = 0, tail = 0;
+		if (clearance.isFree(gx, gy, footprint, footprint)) {
+			distance[goal] = 0;
+			queue[tail++] = goal;
+		}
+		while (head < tail) {
+			int cell = queue[head++];
+			int x = cell % width;
+			int y = cell / width;
+			for (int i = 0; i < MOVES.length; i++) {
+				int nx = x + MOVES[i][0];
+				int ny = y + MOVES[i][1];
+				if (nx < 0 || nx >= width || ny < 0 || ny >= height) {
+					continue;
+				}
+				int next = nx + ny * width;
+				if (distance[next] < 0 && clearance.isFree(nx, ny, footprint, footprint)) {
+					distance[next] = distance[cell] + 1;
+					queue[tail++] = next;
+				}
+			}
+		}
+	}
+
+	public int getGoal() {
+		return goal;
+	}
+
+	public int getFootprint() {
+		return footprint;
+	}
+
+	/**
+	 * @return the number of steps from (x,y) to the goal, or -1 if the goal
+	 *         cannot be reached from there.
+	 */
+	public int distance(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			return -1;
+		}
+		return distance[x + y * width];
+	}
+
+	/**
+	 * @return the neighbour of (x,y) one step closer to the goal where the
+	 *         entity can stand right now (taking other units into account), or
+	 *         -1 if there is none.
+	 */
+	public int nextStep(int x, int y, S3PhysicalEntity entity, S3 game) {
+		int d = distance(x, y);
+		if (d <= 0) {
+			return -1;
+		}
+		for (int i = 0; i < MOVES.length; i++) {
+			int nx = x + MOVES[i][0];
+			int ny = y + MOVES[i][1];
+			if (distance(nx, ny) == d - 1 && game.isPassable(entity, nx, ny)) {
+				return nx + ny * width;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return an estimate of the memory used by the field, in bytes.
+	 */
+	public long getMemoryUse() {
+		return 64 + 4L * distance.length;
+	}
+}
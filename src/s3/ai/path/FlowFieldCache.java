@@ -0,0 +1,149 @@
+package s3.ai.path;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import s3.base.S3ClearanceMap;
+
+/**
+ * The flow fields of a game, one per destination and footprint size. A field
+ * is only built once MIN_REQUESTS different units have asked to go to the
+ * same place (a group sent somewhere, or peasants going back and forth
+ * between a mine and a townhall); single units going somewhere are better
+ * served by A*, however many times they ask (once per leg of a hierarchical
+ * path, for instance).
+ *
+ * At most MAX_FIELDS fields are kept, evicting the least recently used ones.
+ * As for the PathCache, the fields are dropped when a cell gets blocked, but
+ * not when cells open up (following a field still gets to the goal then).
+ */
+public class FlowFieldCache implements S3ClearanceMap.Listener {
+	public static int MAX_FIELDS = 16;
+
+	public static int MIN_REQUESTS = 2;
+
+	private final S3ClearanceMap clearance;
+
+	private final LinkedHashMap<Long, FlowField> fields = new LinkedHashMap<Long, FlowField>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Long, FlowField> eldest) {
+			if (size() > MAX_FIELDS) {
+				evictions++;
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/** the ids of the units that asked for each destination without a field. */
+	private final LinkedHashMap<Long, int[]> requests = new LinkedHashMap<Long, int[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+			return size() > MAX_FIELDS * 16;
+		}
+	};
+
+	private long lookups = 0, hits = 0, built = 0, evictions = 0, invalidations = 0;
+
+	public FlowFieldCache(S3ClearanceMap clearance) {
+		this.clearance = clearance;
+		clearance.addListener(this);
+	}
+
+	/**
+	 * to be called when unit "requester" (its entity id) plans to go to (gx,gy).
+	 *
+	 * @return the field towards (gx,gy), or null if not enough units have asked
+	 *         for it yet (or the goal is not on the map).
+	 */
+	public FlowField request(int gx, int gy, int footprint, int requester) {
+		return get(gx, gy, footprint, requester, false);
+	}
+
+	/**
+	 * @return the field towards (gx,gy), building it if needed (or null if the
+	 *         goal is not on the map).
+	 */
+	public FlowField get(int gx, int gy, int footprint) {
+		return get(gx, gy, footprint, -1, true);
+	}
+
+	private FlowField get(int gx, int gy, int footprint, int requester, boolean force) {
+		if (gx < 0 || gx >= clearance.getWidth() || gy < 0 || gy >= clearance.getHeight()) {
+			return null;
+		}
+		lookups++;
+		Long k = key(gx + gy * clearance.getWidth(), footprint);
+		FlowField field = fields.get(k);
+		if (field != null) {
+			hits++;
+			return field;
+		}
+		if (!force) {
+			int[] requesters = requests.get(k);
+			if (requesters == null) {
+				requesters = new int[0];
+			}
+			if (!contains(requesters, requester)) {
+				requesters = Arrays.copyOf(requesters, requesters.length + 1);
+				requesters[requesters.length - 1] = requester;
+			}
+			if (requesters.length < MIN_REQUESTS) {
+				requests.put(k, requesters);
+				return null;
+			}
+		}
+		requests.remove(k);
+		field = new FlowField(clearance, gx, gy, footprint);
+		fields.put(k, field);
+		built++;
+		return field;
+	}
+
+	public void obstaclesChanged(int x0, int y0, int x1, int y1) {
+		for (int y = y0; y < y1; y++) {
+			for (int x = x0; x < x1; x++) {
+				if (!clearance.isFree(x, y, 1, 1)) {
+					if (!fields.isEmpty()) {
+						fields.clear();
+						invalidations++;
+					}
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return an estimate of the memory used by the fields, in bytes.
+	 */
+	public long getMemoryUse() {
+		long bytes = 0;
+		for (FlowField f : fields.values()) {
+			bytes += f.getMemoryUse();
+		}
+		return bytes;
+	}
+
+	public String toString() {
+		return "FlowFieldCache: " + lookups + " lookups, " + hits + " hits, " + built + " fields built, "
+				+ fields.size() + " fields (~" + (getMemoryUse() / 1024) + "KB), " + evictions + " evictions, "
+				+ invalidations + " invalidations";
+	}
+
+	private static boolean contains(int[] a, int v) {
+		for (int x : a) {
+			if (x == v) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Long key(int goal, int footprint) {
+		return ((long) goal << 3) | footprint;
+	}
+}
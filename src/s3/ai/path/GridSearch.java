@@ -0,0 +1,171 @@
+package s3.ai.path;
+
+import static java.lang.Math.abs;
+
+/**
+ * A best first search over the cells of the rectangle [x0,x1) x [y0,y1) of a
+ * grid, with cells encoded as x + y * width and moves to the 4 neighbours of
+ * a cell costing 1. The open list is ordered by f = g + h (h being the
+ * Manhattan distance to the goal), and cells with the same f are expanded in
+ * the order they were (last) queued. Subclasses decide which cells are
+ * queued when a cell is expanded (see PlannerStrategy).
+ *
+ * It can be run a number of expansions at a time, as long as nobody else uses
+ * its search space in between, or in another thread (run()) if what it asks
+ * the Passability does not depend on the game going on.
+ */
+public abstract class GridSearch implements PathScheduler.Task, Runnable {
+	/**
+	 * whether the entity searched for can stand on a cell.
+	 */
+	public interface Passability {
+		boolean isPassable(int x, int y);
+	}
+
+	protected final int sx, sy, gx, gy, x0, y0, x1, y1;
+	protected final int width, height, goal;
+	private final Passability passability;
+	protected SearchSpace space;
+	private int order = 0;
+	private boolean done = false;
+	private int[] result = null;
+	private long expansions = 0, cellsLooked = 0;
+
+	protected GridSearch(int sx, int sy, int gx, int gy, int x0, int y0, int x1, int y1, int width, int height,
+			Passability passability) {
+		this.sx = sx;
+		this.sy = sy;
+		this.gx = gx;
+		this.gy = gy;
+		this.x0 = x0;
+		this.y0 = y0;
+		this.x1 = x1;
+		this.y1 = y1;
+		this.width = width;
+		this.height = height;
+		this.passability = passability;
+		goal = gx + gy * width;
+	}
+
+	/**
+	 * starts the search in the given search space (see also run()).
+	 */
+	public void begin(SearchSpace space) {
+		this.space = space;
+		int start = sx + sy * width;
+		space.set(start, 0, -1);
+		space.open.put(start, key(abs(sx - gx) + abs(sy - gy), order++));
+	}
+
+	public SearchSpace getSearchSpace() {
+		return space;
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return the cells from the start (excluded) to the goal, or null if the
+	 *         goal cannot be reached (or the search is not done).
+	 */
+	public int[] getResult() {
+		return result;
+	}
+
+	/**
+	 * @return the number of cells expanded so far.
+	 */
+	public long getExpansions() {
+		return expansions;
+	}
+
+	/**
+	 * @return the number of times the search asked whether the entity can
+	 *         stand on a cell so far.
+	 */
+	public long getCellsLooked() {
+		return cellsLooked;
+	}
+
+	public void run() {
+		begin(SearchSpace.get(width * height));
+		advance(Integer.MAX_VALUE);
+		space = null;
+	}
+
+	public int advance(int maxExpansions) {
+		NodeHeap open = space.open;
+		int n = 0;
+		while (n < maxExpansions) {
+			if (open.isEmpty()) {
+				done = true;
+				break;
+			}
+			int current = open.poll();
+			n++;
+			if (current == goal) {
+				result = getPath(current);
+				done = true;
+				break;
+			}
+			space.close(current);
+			expand(current);
+		}
+		expansions += n;
+		return n;
+	}
+
+	/**
+	 * queues the successors of a cell that was just closed (with relax()).
+	 */
+	protected abstract void expand(int cell);
+
+	/**
+	 * gives cell "next", at (nx,ny), the cost g through "parent" if it is
+	 * better than what it had.
+	 */
+	protected void relax(int next, int nx, int ny, int g, int parent) {
+		if (space.isClosed(next) || (space.isSeen(next) && g >= space.getG(next))) {
+			return;
+		}
+		space.set(next, g, parent);
+		space.open.put(next, key(g + abs(nx - gx) + abs(ny - gy), order++));
+	}
+
+	/**
+	 * @return true if (x,y) is in the rectangle searched and the entity can
+	 *         stand there.
+	 */
+	protected boolean isAvailable(int x, int y) {
+		cellsLooked++;
+		return x >= x0 && x < x1 && y >= y0 && y < y1 && passability.isPassable(x, y);
+	}
+
+	/**
+	 * @return the cells from the start (excluded) to the given cell, filling
+	 *         in the straight lines between a cell and its parent.
+	 */
+	private int[] getPath(int cell) {
+		int start = sx + sy * width;
+		int[] path = new int[space.getG(cell)];
+		int i = path.length;
+		while (cell != start) {
+			int parent = space.getParent(cell);
+			int step = (parent % width != cell % width ? Integer.signum(parent % width - cell % width)
+					: Integer.signum(parent / width - cell / width) * width);
+			for (int c = cell; c != parent; c += step) {
+				path[--i] = c;
+			}
+			cell = parent;
+		}
+		return path;
+	}
+
+	/**
+	 * open list key: the estimated cost first, then the queuing order.
+	 */
+	private static long key(int f, int order) {
+		return ((long) f << 32) | order;
+	}
+}
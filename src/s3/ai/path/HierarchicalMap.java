@@ -0,0 +1,472 @@
+package s3.ai.path;
+
+import static java.lang.Math.abs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import s3.base.S3ClearanceMap;
+
+/**
+ * Abstraction of the static obstacles of a map for hierarchical pathfinding
+ * (HPA*), for entities with a given square footprint.
+ *
+ * The map is cut into CLUSTER_SIZE x CLUSTER_SIZE clusters. Wherever two
+ * neighbouring clusters can be crossed between, the crossing cells on both
+ * sides become nodes joined by an edge of cost 1 (one crossing per run of
+ * crossable border cells, or one at each end for long runs). Nodes of the same
+ * cluster are joined by edges with their shortest distance inside the cluster.
+ * Long paths are first found over this graph, which is much smaller than the
+ * grid, and only the part in front of the unit is then refined on the grid.
+ *
+ * The graph listens to the clearance map: when obstacles change, the clusters
+ * they fall into are marked dirty, and only those (and the borders they share
+ * with their neighbours) are rebuilt, the next time a path is asked for.
+ *
+ * Troops are not obstacles here; refining the path on the grid takes care of
+ * them. Like the game it belongs to, a HierarchicalMap must only be used from
+ * one thread at a time.
+ */
+public class HierarchicalMap implements S3ClearanceMap.Listener {
+	public static final int CLUSTER_SIZE = 16;
+
+	/** runs of crossable border cells this long get a crossing at each end. */
+	private static final int LONG_ENTRANCE = 6;
+
+	private static final int[] NONE = new int[0];
+
+	private static class Node {
+		final int cell;
+		/** the nodes this one is joined to across cluster borders. */
+		int[] inter = NONE;
+		/** the nodes of the same cluster this one can reach, and at what cost. */
+		int[] intra = NONE, intraCost = NONE;
+
+		Node(int cell) {
+			this.cell = cell;
+		}
+	}
+
+	private final S3ClearanceMap clearance;
+	private final int footprint;
+	private final int width, height;
+	private final int clustersX, clustersY;
+
+	/** the node on each cell (x + y * width), or null. */
+	private final Node[] nodeAt;
+	private final List<Node>[] clusterNodes;
+
+	/**
+	 * the crossings of each border, as pairs of cells. Borders between
+	 * horizontal neighbours come first, then the ones between vertical
+	 * neighbours.
+	 */
+	private final int[][] crossings;
+	private final int verticalBorders;
+
+	private final boolean[] dirty;
+	private boolean anyDirty = true;
+
+	// breadth-first search inside a cluster:
+	private final int[] bfsDistance = new int[CLUSTER_SIZE * CLUSTER_SIZE];
+	private final int[] bfsSeen = new int[CLUSTER_SIZE * CLUSTER_SIZE];
+	private final int[] bfsQueue = new int[CLUSTER_SIZE * CLUSTER_SIZE];
+	private int bfsGeneration = 0;
+	private int bfsCluster = -1;
+
+	public HierarchicalMap(S3ClearanceMap clearance, int footprint) {
+		this.clearance = clearance;
+		this.footprint = footprint;
+		width = clearance.getWidth();
+		height = clearance.getHeight();
+		clustersX = (width + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+		clustersY = (height + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+		nodeAt = new Node[width * height];
+		clusterNodes = newClusterNodes(clustersX * clustersY);
+		for (int i = 0; i < clusterNodes.length; i++) {
+			clusterNodes[i] = new ArrayList<Node>();
+		}
+		verticalBorders = (clustersX - 1) * clustersY;
+		crossings = new int[verticalBorders + clustersX * (clustersY - 1)][];
+		for (int i = 0; i < crossings.length; i++) {
+			crossings[i] = NONE;
+		}
+		dirty = new boolean[clustersX * clustersY];
+		for (int i = 0; i < dirty.length; i++) {
+			dirty[i] = true;
+		}
+		clearance.addListener(this);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static List<Node>[] newClusterNodes(int n) {
+		return new List[n];
+	}
+
+	public int getFootprint() {
+		return footprint;
+	}
+
+	public int clusterOf(int x, int y) {
+		return (x / CLUSTER_SIZE) + (y / CLUSTER_SIZE) * clustersX;
+	}
+
+	public int clusterOf(int cell) {
+		return clusterOf(cell % width, cell / width);
+	}
+
+	/**
+	 * @return the number of nodes of the abstract graph (after bringing it up
+	 *         to date).
+	 */
+	public int size() {
+		repair();
+		int n = 0;
+		for (List<Node> l : clusterNodes) {
+			n += l.size();
+		}
+		return n;
+	}
+
+	public void obstaclesChanged(int x0, int y0, int x1, int y1) {
+		// a footprint at (x,y) covers cells up to (x + footprint - 1, y +
+		// footprint - 1), so it can be affected by cells up to that far:
+		x0 = Math.max(0, x0 - footprint + 1);
+		y0 = Math.max(0, y0 - footprint + 1);
+		x1 = Math.min(width, x1);
+		y1 = Math.min(height, y1);
+		for (int cy = y0 / CLUSTER_SIZE; cy <= (y1 - 1) / CLUSTER_SIZE; cy++) {
+			for (int cx = x0 / CLUSTER_SIZE; cx <= (x1 - 1) / CLUSTER_SIZE; cx++) {
+				dirty[cx + cy * clustersX] = true;
+				anyDirty = true;
+			}
+		}
+	}
+
+	/**
+	 * finds a path over the abstract graph.
+	 *
+	 * @return the cells the path goes through (the start excluded, the goal
+	 *         included), or null if the goal cannot be reached from the start
+	 *         (whatever troops do).
+	 */
+	public int[] findPath(int sx, int sy, int gx, int gy) {
+		repair();
+		int start = sx + sy * width;
+		int goal = gx + gy * width;
+		int startCluster = clusterOf(sx, sy);
+		int goalCluster = clusterOf(gx, gy);
+
+		// connect the goal and the start to the nodes of their clusters:
+		List<Node> goalNodes = clusterNodes[goalCluster];
+		int[] goalCost = new int[goalNodes.size()];
+		bfs(goalCluster, goal);
+		for (int i = 0; i < goalCost.length; i++) {
+			goalCost[i] = distance(goalNodes.get(i).cell);
+		}
+		int direct = (startCluster == goalCluster ? distance(start) : -1);
+		List<Node> startNodes = clusterNodes[startCluster];
+		int[] startCost = new int[startNodes.size()];
+		bfs(startCluster, start);
+		for (int i = 0; i < startCost.length; i++) {
+			startCost[i] = distance(startNodes.get(i).cell);
+		}
+
+		SearchSpace space = SearchSpace.get(width * height);
+		NodeHeap open = space.open;
+		int order = 0;
+		space.set(start, 0, -1);
+		open.put(start, key(h(start, gx, gy), order++));
+		while (!open.isEmpty()) {
+			int current = open.poll();
+			if (current == goal) {
+				int n = 0;
+				for (int c = goal; c != start; c = space.getParent(c)) {
+					n++;
+				}
+				int[] path = new int[n];
+				for (int c = goal; c != start; c = space.getParent(c)) {
+					path[--n] = c;
+				}
+				return path;
+			}
+			space.close(current);
+			int g = space.getG(current);
+			if (current == start) {
+				for (int i = 0; i < startCost.length; i++) {
+					if (startCost[i] >= 0) {
+						order = relax(space, current, startNodes.get(i).cell, g + startCost[i], gx, gy, order);
+					}
+				}
+				if (direct >= 0) {
+					order = relax(space, current, goal, g + direct, gx, gy, order);
+				}
+			}
+			Node node = nodeAt[current];
+			if (node != null) {
+				for (int next : node.inter) {
+					order = relax(space, current, next, g + 1, gx, gy, order);
+				}
+				for (int i = 0; i < node.intra.length; i++) {
+					order = relax(space, current, node.intra[i], g + node.intraCost[i], gx, gy, order);
+				}
+				if (clusterOf(current) == goalCluster) {
+					for (int i = 0; i < goalCost.length; i++) {
+						if (goalNodes.get(i) == node && goalCost[i] >= 0) {
+							order = relax(space, current, goal, g + goalCost[i], gx, gy, order);
+						}
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	private int relax(SearchSpace space, int current, int next, int g, int gx, int gy, int order) {
+		if (space.isClosed(next) || (space.isSeen(next) && g >= space.getG(next))) {
+			return order;
+		}
+		space.set(next, g, current);
+		space.open.put(next, key(g + h(next, gx, gy), order));
+		return order + 1;
+	}
+
+	private int h(int cell, int gx, int gy) {
+		return abs(cell % width - gx) + abs(cell / width - gy);
+	}
+
+	private static long key(int f, int order) {
+		return ((long) f << 32) | order;
+	}
+
+	private boolean isPassable(int x, int y) {
+		return clearance.isFree(x, y, footprint, footprint);
+	}
+
+	/**
+	 * rebuilds the borders and edges of the dirty clusters.
+	 */
+	private void repair() {
+		if (!anyDirty) {
+			return;
+		}
+		boolean[] borders = new boolean[crossings.length];
+		boolean[] affected = new boolean[dirty.length];
+		for (int cy = 0; cy < clustersY; cy++) {
+			for (int cx = 0; cx < clustersX; cx++) {
+				int k = cx + cy * clustersX;
+				if (!dirty[k]) {
+					continue;
+				}
+				affected[k] = true;
+				if (cx > 0) {
+					borders[verticalBorder(cx - 1, cy)] = true;
+					affected[k - 1] = true;
+				}
+				if (cx + 1 < clustersX) {
+					borders[verticalBorder(cx, cy)] = true;
+					affected[k + 1] = true;
+				}
+				if (cy > 0) {
+					borders[horizontalBorder(cx, cy - 1)] = true;
+					affected[k - clustersX] = true;
+				}
+				if (cy + 1 < clustersY) {
+					borders[horizontalBorder(cx, cy)] = true;
+					affected[k + clustersX] = true;
+				}
+				dirty[k] = false;
+			}
+		}
+		for (int b = 0; b < borders.length; b++) {
+			if (borders[b]) {
+				buildBorder(b);
+			}
+		}
+		for (int k = 0; k < affected.length; k++) {
+			if (affected[k]) {
+				buildEdges(k);
+			}
+		}
+		anyDirty = false;
+	}
+
+	private int verticalBorder(int cx, int cy) {
+		return cx + cy * (clustersX - 1);
+	}
+
+	private int horizontalBorder(int cx, int cy) {
+		return verticalBorders + cx + cy * clustersX;
+	}
+
+	/**
+	 * finds again where the given border can be crossed.
+	 */
+	private void buildBorder(int b) {
+		int[] old = crossings[b];
+		for (int i = 0; i < old.length; i += 2) {
+			disconnect(old[i], old[i + 1]);
+			disconnect(old[i + 1], old[i]);
+		}
+
+		// cells along the border, on the first cluster's side, and the step
+		// to the cell on the other side:
+		int x, y, dx, dy, length, across;
+		if (b < verticalBorders) {
+			int cx = b % (clustersX - 1), cy = b / (clustersX - 1);
+			x = (cx + 1) * CLUSTER_SIZE - 1;
+			y = cy * CLUSTER_SIZE;
+			dx = 0;
+			dy = 1;
+			length = Math.min(height, y + CLUSTER_SIZE) - y;
+			across = 1;
+		} else {
+			int cx = (b - verticalBorders) % clustersX, cy = (b - verticalBorders) / clustersX;
+			x = cx * CLUSTER_SIZE;
+			y = (cy + 1) * CLUSTER_SIZE - 1;
+			dx = 1;
+			dy = 0;
+			length = Math.min(width, x + CLUSTER_SIZE) - x;
+			across = width;
+		}
+
+		int[] found = new int[length * 4];
+		int n = 0;
+		int runStart = -1;
+		for (int i = 0; i <= length; i++) {
+			boolean open = i < length && isPassable(x + i * dx, y + i * dy)
+					&& isPassable(x + i * dx + (dx == 0 ? 1 : 0), y + i * dy + (dy == 0 ? 1 : 0));
+			if (open && runStart < 0) {
+				runStart = i;
+			} else if (!open && runStart >= 0) {
+				int runEnd = i - 1;
+				if (i - runStart < LONG_ENTRANCE) {
+					int mid = (runStart + runEnd) / 2;
+					int cell = (x + mid * dx) + (y + mid * dy) * width;
+					found[n++] = cell;
+					found[n++] = cell + across;
+				} else {
+					int first = (x + runStart * dx) + (y + runStart * dy) * width;
+					int last = (x + runEnd * dx) + (y + runEnd * dy) * width;
+					found[n++] = first;
+					found[n++] = first + across;
+					found[n++] = last;
+					found[n++] = last + across;
+				}
+				runStart = -1;
+			}
+		}
+
+		int[] pairs = new int[n];
+		System.arraycopy(found, 0, pairs, 0, n);
+		crossings[b] = pairs;
+		for (int i = 0; i < n; i += 2) {
+			connect(pairs[i], pairs[i + 1]);
+			connect(pairs[i + 1], pairs[i]);
+		}
+	}
+
+	private void connect(int cell, int other) {
+		Node node = nodeAt[cell];
+		if (node == null) {
+			node = new Node(cell);
+			nodeAt[cell] = node;
+			clusterNodes[clusterOf(cell)].add(node);
+		}
+		int[] inter = new int[node.inter.length + 1];
+		System.arraycopy(node.inter, 0, inter, 0, node.inter.length);
+		inter[node.inter.length] = other;
+		node.inter = inter;
+	}
+
+	private void disconnect(int cell, int other) {
+		Node node = nodeAt[cell];
+		if (node == null) {
+			return;
+		}
+		for (int i = 0; i < node.inter.length; i++) {
+			if (node.inter[i] == other) {
+				int[] inter = new int[node.inter.length - 1];
+				System.arraycopy(node.inter, 0, inter, 0, i);
+				System.arraycopy(node.inter, i + 1, inter, i, inter.length - i);
+				node.inter = inter;
+				break;
+			}
+		}
+		if (node.inter.length == 0) {
+			nodeAt[cell] = null;
+			clusterNodes[clusterOf(cell)].remove(node);
+		}
+	}
+
+	/**
+	 * recomputes the distances between the nodes of a cluster.
+	 */
+	private void buildEdges(int k) {
+		List<Node> nodes = clusterNodes[k];
+		int[] to = new int[nodes.size()];
+		int[] cost = new int[nodes.size()];
+		for (Node node : nodes) {
+			bfs(k, node.cell);
+			int n = 0;
+			for (Node other : nodes) {
+				int d = distance(other.cell);
+				if (other != node && d >= 0) {
+					to[n] = other.cell;
+					cost[n++] = d;
+				}
+			}
+			node.intra = new int[n];
+			node.intraCost = new int[n];
+			System.arraycopy(to, 0, node.intra, 0, n);
+			System.arraycopy(cost, 0, node.intraCost, 0, n);
+		}
+	}
+
+	/**
+	 * breadth-first search from a cell, without leaving cluster k. The origin
+	 * itself does not need to be passable.
+	 */
+	private void bfs(int k, int from) {
+		int x0 = (k % clustersX) * CLUSTER_SIZE;
+		int y0 = (k / clustersX) * CLUSTER_SIZE;
+		int x1 = Math.min(width, x0 + CLUSTER_SIZE);
+		int y1 = Math.min(height, y0 + CLUSTER_SIZE);
+		bfsGeneration++;
+		bfsCluster = k;
+		int head = 0, tail = 0;
+		int local = (from % width - x0) + (from / width - y0) * CLUSTER_SIZE;
+		bfsSeen[local] = bfsGeneration;
+		bfsDistance[local] = 0;
+		bfsQueue[tail++] = local;
+		while (head < tail) {
+			int current = bfsQueue[head++];
+			int lx = current % CLUSTER_SIZE, ly = current / CLUSTER_SIZE;
+			int d = bfsDistance[current] + 1;
+			for (int i = 0; i < 4; i++) {
+				int nx = lx + (i == 0 ? -1 : (i == 1 ? 1 : 0));
+				int ny = ly + (i == 2 ? -1 : (i == 3 ? 1 : 0));
+				if (nx < 0 || ny < 0 || x0 + nx >= x1 || y0 + ny >= y1) {
+					continue;
+				}
+				int next = nx + ny * CLUSTER_SIZE;
+				if (bfsSeen[next] != bfsGeneration && isPassable(x0 + nx, y0 + ny)) {
+					bfsSeen[next] = bfsGeneration;
+					bfsDistance[next] = d;
+					bfsQueue[tail++] = next;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the distance found by the last bfs() to a cell of its cluster, or
+	 *         -1 if it was not reached.
+	 */
+	private int distance(int cell) {
+		int x0 = (bfsCluster % clustersX) * CLUSTER_SIZE;
+		int y0 = (bfsCluster / clustersX) * CLUSTER_SIZE;
+		int local = (cell % width - x0) + (cell / width - y0) * CLUSTER_SIZE;
+		return bfsSeen[local] == bfsGeneration ? bfsDistance[local] : -1;
+	}
+}
@@ -0,0 +1,164 @@
+package s3.ai.path;
+
+/**
+ * Indexed binary min-heap of int node ids, ordered by a long key. Knowing the
+ * position of every node in the heap allows changing the key of a node that is
+ * already in it (decrease-key) in O(log n).
+ *
+ * Nodes are ids in [0, capacity). clear() is O(1): stale positions are told
+ * apart from real ones by checking that the heap slot they point to holds the
+ * node.
+ */
+public class NodeHeap {
+	private int[] heap;
+	private int[] pos;
+	private long[] key;
+	private int size = 0;
+
+	public NodeHeap(int capacity) {
+		heap = new int[capacity];
+		pos = new int[capacity];
+		key = new long[capacity];
+	}
+
+	public int capacity() {
+		return pos.length;
+	}
+
+	/**
+	 * makes room for node ids up to capacity - 1. Empties the heap if it has to
+	 * grow.
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity > pos.length) {
+			heap = new int[capacity];
+			pos = new int[capacity];
+			key = new long[capacity];
+			size = 0;
+		}
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(int node) {
+		int i = pos[node];
+		return i < size && heap[i] == node;
+	}
+
+	/**
+	 * @return the key of a node that is in the heap.
+	 */
+	public long getKey(int node) {
+		return key[node];
+	}
+
+	/**
+	 * adds the node, or changes its key if it is already in the heap.
+	 */
+	public void put(int node, long k) {
+		if (contains(node)) {
+			long old = key[node];
+			key[node] = k;
+			if (k < old) {
+				up(pos[node]);
+			} else {
+				down(pos[node]);
+			}
+		} else {
+			key[node] = k;
+			heap[size] = node;
+			pos[node] = size;
+			up(size++);
+		}
+	}
+
+	/**
+	 * @return the node with the smallest key (which must not be empty).
+	 */
+	public int peek() {
+		return heap[0];
+	}
+
+	public long peekKey() {
+		return key[heap[0]];
+	}
+
+	/**
+	 * removes and returns the node with the smallest key.
+	 */
+	public int poll() {
+		int top = heap[0];
+		size--;
+		if (size > 0) {
+			move(heap[size], 0);
+			down(0);
+		}
+		return top;
+	}
+
+	/**
+	 * removes the node if it is in the heap.
+	 */
+	public void remove(int node) {
+		if (!contains(node)) {
+			return;
+		}
+		int i = pos[node];
+		size--;
+		if (i < size) {
+			int last = heap[size];
+			move(last, i);
+			up(i);
+			down(pos[last]);
+		}
+		// make sure contains() does not see it anymore:
+		heap[size] = -1;
+	}
+
+	private void up(int i) {
+		int node = heap[i];
+		long k = key[node];
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
+			if (key[heap[parent]] <= k) {
+				break;
+			}
+			move(heap[parent], i);
+			i = parent;
+		}
+		move(node, i);
+	}
+
+	private void down(int i) {
+		int node = heap[i];
+		long k = key[node];
+		int half = size >> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && key[heap[child + 1]] < key[heap[child]]) {
+				child++;
+			}
+			if (k <= key[heap[child]]) {
+				break;
+			}
+			move(heap[child], i);
+			i = child;
+		}
+		move(node, i);
+	}
+
+	private void move(int node, int i) {
+		heap[i] = node;
+		pos[node] = i;
+	}
+}
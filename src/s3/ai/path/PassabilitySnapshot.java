@@ -0,0 +1,77 @@
+package s3.ai.path;
+
+import java.util.List;
+
+import s3.base.S3ClearanceMap;
+import s3.entities.WUnit;
+
+/**
+ * A copy of what blocks each cell of the map at a given moment: the clearance
+ * of the static obstacles, and which unit stands on each cell. It never
+ * changes once built, so searches in other threads can read it while the
+ * game goes on.
+ */
+public class PassabilitySnapshot {
+	/** occupant of cells with more than one unit on them. */
+	private static final int SEVERAL = -2;
+
+	private final int width, height;
+	private final int version;
+	private final byte[] clearance;
+
+	/** entityID of the unit on each cell, -1 if none, or SEVERAL. */
+	private final int[] occupant;
+
+	public PassabilitySnapshot(S3ClearanceMap map, List<WUnit> units) {
+		width = map.getWidth();
+		height = map.getHeight();
+		version = map.getVersion();
+		clearance = new byte[width * height];
+		occupant = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				clearance[x + y * width] = (byte) map.getClearance(x, y);
+				occupant[x + y * width] = -1;
+			}
+		}
+		for (WUnit u : units) {
+			int x1 = Math.min(width, u.getX() + u.getWidth());
+			int y1 = Math.min(height, u.getY() + u.getLength());
+			for (int y = Math.max(0, u.getY()); y < y1; y++) {
+				for (int x = Math.max(0, u.getX()); x < x1; x++) {
+					int i = x + y * width;
+					occupant[i] = (occupant[i] == -1 ? u.entityID : SEVERAL);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the version of the clearance map the snapshot was taken from.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return true if the w x l footprint at (x,y) is clear of static obstacles
+	 *         and of units other than entityID (like S3.isPassable, but for
+	 *         square footprints only).
+	 */
+	public boolean isPassable(int entityID, int x, int y, int w, int l) {
+		if (x >= 0 && y >= 0 && x < width && y < height && clearance[x + y * width] < Math.max(w, l)) {
+			return false;
+		}
+		int x1 = Math.min(width, x + w);
+		int y1 = Math.min(height, y + l);
+		for (int j = Math.max(0, y); j < y1; j++) {
+			for (int i = Math.max(0, x); i < x1; i++) {
+				int o = occupant[i + j * width];
+				if (o != -1 && o != entityID) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,211 @@
+package s3.ai.path;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import s3.base.S3ClearanceMap;
+
+/**
+ * Paths already found, shared by all the units of a game. Entries are keyed
+ * on the region of the start, the goal cell and the footprint size, and each
+ * one stores the paths found towards its goal as a tree: every cell on a
+ * stored path points to the next cell towards the goal. A unit standing on
+ * any cell of a stored path gets the rest of that path (the suffix) without
+ * searching, so units sent in a wave to the same place share the paths of
+ * the ones that went first.
+ *
+ * Only complete paths (ending at the goal) are stored, and a cell that is
+ * already in the tree keeps its next cell, so following the tree from any
+ * cell always ends at the goal.
+ *
+ * Stored paths only remain valid as long as no obstacle is added to the map:
+ * every time a cell gets blocked (a building is placed, a construction
+ * tile is set) the map version goes up and the whole cache is dropped. Cells
+ * that open up (trees being chopped) leave stored paths valid. Troops are not
+ * taken into account here: callers must check that the path is free before
+ * using it.
+ *
+ * At most MAX_ENTRIES goals are kept, evicting the least recently used ones.
+ */
+public class PathCache implements S3ClearanceMap.Listener {
+	public static int MAX_ENTRIES = 256;
+
+	/** longest path (in cells) stored in a single entry. */
+	public static int MAX_CELLS_PER_ENTRY = 4096;
+
+	private final S3ClearanceMap clearance;
+
+	private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+			if (size() > MAX_ENTRIES) {
+				evictions++;
+				storedCells -= eldest.getValue().size;
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/** incremented every time the stored paths are dropped. */
+	private int mapVersion = 0;
+
+	private long lookups = 0, hits = 0, stores = 0, evictions = 0;
+	private long storedCells = 0;
+
+	public PathCache(S3ClearanceMap clearance) {
+		this.clearance = clearance;
+		clearance.addListener(this);
+	}
+
+	/**
+	 * @return the cells from start (excluded) to goal (included) along a stored
+	 *         path, or null if start is not on any path stored for this goal.
+	 */
+	public int[] get(int region, int goal, int footprint, int start) {
+		lookups++;
+		Entry e = entries.get(key(region, goal, footprint));
+		if (e == null || e.next(start) < 0) {
+			return null;
+		}
+		int n = 0;
+		for (int c = start; c != goal; c = e.next(c)) {
+			n++;
+		}
+		int[] path = new int[n];
+		n = 0;
+		for (int c = e.next(start); n < path.length; c = e.next(c)) {
+			path[n++] = c;
+		}
+		hits++;
+		return path;
+	}
+
+	/**
+	 * stores a path from start (excluded) to goal (its last cell).
+	 */
+	public void put(int region, int goal, int footprint, int start, int[] path) {
+		if (path.length == 0 || path[path.length - 1] != goal) {
+			return;
+		}
+		Long k = key(region, goal, footprint);
+		Entry e = entries.get(k);
+		if (e == null) {
+			e = new Entry();
+			entries.put(k, e);
+		}
+		if (e.size + path.length > MAX_CELLS_PER_ENTRY) {
+			return;
+		}
+		// from the goal backwards, so every new cell points to a cell that
+		// already leads to the goal:
+		for (int i = path.length - 1; i >= 0; i--) {
+			int cell = (i == 0 ? start : path[i - 1]);
+			if (e.next(cell) < 0) {
+				e.put(cell, path[i]);
+				storedCells++;
+			}
+		}
+		stores++;
+	}
+
+	public void obstaclesChanged(int x0, int y0, int x1, int y1) {
+		// the cells of the rectangle all got or all lost an obstacle; if they
+		// are blocked now, stored paths may go through them:
+		for (int y = y0; y < y1; y++) {
+			for (int x = x0; x < x1; x++) {
+				if (!clearance.isFree(x, y, 1, 1)) {
+					clear();
+					return;
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		entries.clear();
+		storedCells = 0;
+		mapVersion++;
+	}
+
+	public int getMapVersion() {
+		return mapVersion;
+	}
+
+	public double getHitRate() {
+		return lookups == 0 ? 0 : hits / (double) lookups;
+	}
+
+	/**
+	 * @return an estimate of the memory used by the stored paths, in bytes.
+	 */
+	public long getMemoryUse() {
+		long bytes = 0;
+		for (Entry e : entries.values()) {
+			bytes += 64 + 8L * e.cells.length;
+		}
+		return bytes;
+	}
+
+	public String toString() {
+		return "PathCache: " + lookups + " lookups, " + hits + " hits ("
+				+ (Math.round(getHitRate() * 1000) / 10.0) + "%), " + stores + " paths stored, " + entries.size()
+				+ " goals (" + storedCells + " cells, ~" + (getMemoryUse() / 1024) + "KB), " + evictions
+				+ " evictions, " + mapVersion + " invalidations";
+	}
+
+	private static Long key(int region, int goal, int footprint) {
+		return ((long) region << 32) | ((long) goal << 3) | footprint;
+	}
+
+	/**
+	 * cell -> next cell towards the goal (open addressing, linear probing).
+	 */
+	private static class Entry {
+		/** cells are stored as cell + 1, so that 0 means empty. */
+		int[] cells = new int[32];
+		int[] next = new int[32];
+		int size = 0;
+
+		int next(int cell) {
+			int mask = cells.length - 1;
+			for (int i = hash(cell) & mask; cells[i] != 0; i = (i + 1) & mask) {
+				if (cells[i] == cell + 1) {
+					return next[i];
+				}
+			}
+			return -1;
+		}
+
+		void put(int cell, int to) {
+			if ((size + 1) * 2 > cells.length) {
+				int[] oldCells = cells, oldNext = next;
+				cells = new int[oldCells.length * 2];
+				next = new int[oldCells.length * 2];
+				for (int i = 0; i < oldCells.length; i++) {
+					if (oldCells[i] != 0) {
+						insert(oldCells[i], oldNext[i]);
+					}
+				}
+			}
+			insert(cell + 1, to);
+			size++;
+		}
+
+		private void insert(int storedCell, int to) {
+			int mask = cells.length - 1;
+			int i = hash(storedCell - 1) & mask;
+			while (cells[i] != 0) {
+				i = (i + 1) & mask;
+			}
+			cells[i] = storedCell;
+			next[i] = to;
+		}
+
+		private static int hash(int cell) {
+			int h = cell * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+	}
+}
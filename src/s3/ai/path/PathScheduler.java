@@ -0,0 +1,120 @@
+package s3.ai.path;
+
+import java.util.LinkedList;
+
+/**
+ * Shares a fixed number of node expansions per game cycle between all the
+ * searches that are going on, so that a game cycle never spends more than
+ * that on pathfinding however many units are planning at once. Searches that
+ * do not finish within the budget carry on in the next cycles.
+ *
+ * A search that arrives when nobody is waiting starts right away with what
+ * is left of the budget, so short searches are still answered in the cycle
+ * they were asked for. Otherwise it waits its turn: at the start of each
+ * cycle the budget is split evenly between the waiting searches, in the order
+ * they arrived, and the ones that are still not done go back to the end of
+ * the queue.
+ */
+public class PathScheduler {
+	/**
+	 * a search that can be advanced a bit at a time.
+	 */
+	public interface Task {
+		/**
+		 * expands at most maxExpansions nodes.
+		 *
+		 * @return the number of nodes expanded (at least one unless done).
+		 */
+		int advance(int maxExpansions);
+
+		boolean isDone();
+	}
+
+	public static int EXPANSIONS_PER_CYCLE = 4000;
+
+	/** the smallest share of the budget a waiting search gets. */
+	public static int MIN_SLICE = 256;
+
+	private final LinkedList<Task> pending = new LinkedList<Task>();
+	private final LinkedList<SearchSpace> spaces = new LinkedList<SearchSpace>();
+	private int budget = EXPANSIONS_PER_CYCLE;
+
+	private long submitted = 0, deferred = 0, cycles = 0, busyCycles = 0;
+	private int maxPending = 0;
+
+	/**
+	 * to be called at the start of every game cycle: renews the budget and
+	 * advances the waiting searches.
+	 */
+	public void cycle() {
+		cycles++;
+		budget = EXPANSIONS_PER_CYCLE;
+		if (!pending.isEmpty()) {
+			busyCycles++;
+		}
+		int n = pending.size();
+		while (budget > 0 && !pending.isEmpty()) {
+			Task t = pending.removeFirst();
+			int slice = Math.min(budget, Math.max(MIN_SLICE, EXPANSIONS_PER_CYCLE / n));
+			budget -= t.advance(slice);
+			if (!t.isDone()) {
+				pending.addLast(t);
+			}
+		}
+	}
+
+	/**
+	 * starts a search, running it right away if nobody else is waiting.
+	 */
+	public void submit(Task t) {
+		submitted++;
+		if (pending.isEmpty() && budget > 0) {
+			budget -= t.advance(budget);
+			if (t.isDone()) {
+				return;
+			}
+		}
+		deferred++;
+		pending.addLast(t);
+		maxPending = Math.max(maxPending, pending.size());
+	}
+
+	/**
+	 * for searches that were done without going through the scheduler: counts
+	 * their expansions against the budget of the current cycle.
+	 */
+	public void charge(int expansions) {
+		budget -= expansions;
+	}
+
+	/**
+	 * forgets a search that is no longer needed.
+	 */
+	public void cancel(Task t) {
+		pending.remove(t);
+	}
+
+	public int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * @return a search space for a search that will take several cycles (the
+	 *         one of the thread cannot be used, since other searches are done
+	 *         in between).
+	 */
+	public SearchSpace getSearchSpace(int size) {
+		SearchSpace s = (spaces.isEmpty() ? new SearchSpace(size) : spaces.removeFirst());
+		s.begin(size);
+		return s;
+	}
+
+	public void releaseSearchSpace(SearchSpace s) {
+		spaces.add(s);
+	}
+
+	public String toString() {
+		return "PathScheduler: " + submitted + " searches, " + deferred + " continued in later cycles, at most "
+				+ maxPending + " waiting, " + busyCycles + "/" + cycles + " cycles with searches waiting";
+	}
+}
@@ -0,0 +1,200 @@
+package s3.ai.path;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+import s3.base.S3ClearanceMap;
+
+/**
+ * The pathfinding structures of a game: the ones derived from its static
+ * obstacles, built the first time they are needed and kept up to date
+ * through the clearance map (one per footprint size, since what an entity can
+ * go through depends on its size), and the ones shared by the searches of all
+ * its units (caches, scheduling, pooled replanners).
+ */
+public class Pathfinding {
+	/** the planner strategy of every game, or null to choose one per map. */
+	public static PlannerStrategy STRATEGY = null;
+
+	/**
+	 * what expanding a cell (open list operations) costs compared to asking
+	 * whether a cell is passable, as measured with PlannerComparison; used to
+	 * choose the strategy of a map.
+	 */
+	public static int EXPANSION_COST = 16;
+
+	/** number of searches done on a map to choose its strategy. */
+	public static int CALIBRATION_SEARCHES = 16;
+
+	private final S3ClearanceMap clearance;
+	private final HierarchicalMap[] hierarchicalMaps = new HierarchicalMap[S3ClearanceMap.MAX_CLEARANCE + 1];
+	private final RegionMap[] regionMaps = new RegionMap[S3ClearanceMap.MAX_CLEARANCE + 1];
+	private final DistanceOracle[] distanceOracles = new DistanceOracle[S3ClearanceMap.MAX_CLEARANCE + 1];
+	private PathCache pathCache;
+	private FlowFieldCache flowFields;
+	private final PathScheduler scheduler = new PathScheduler();
+	private AsyncPlanner asyncPlanner;
+	private final LinkedList<DStarLite> replanners = new LinkedList<DStarLite>();
+	private CooperativePlanner cooperativePlanner;
+	private PlannerStrategy plannerStrategy;
+
+	public Pathfinding(S3ClearanceMap clearance) {
+		this.clearance = clearance;
+	}
+
+	public S3ClearanceMap getClearanceMap() {
+		return clearance;
+	}
+
+	/**
+	 * @return the abstract graph used to plan long paths for entities with a
+	 *         footprint of the given size.
+	 */
+	public HierarchicalMap getHierarchicalMap(int footprint) {
+		if (hierarchicalMaps[footprint] == null) {
+			hierarchicalMaps[footprint] = new HierarchicalMap(clearance, footprint);
+		}
+		return hierarchicalMaps[footprint];
+	}
+
+	/**
+	 * @return the connected regions of the map for entities with a footprint
+	 *         of the given size.
+	 */
+	public RegionMap getRegionMap(int footprint) {
+		if (regionMaps[footprint] == null) {
+			regionMaps[footprint] = new RegionMap(clearance, footprint);
+		}
+		return regionMaps[footprint];
+	}
+
+	/**
+	 * @return distances over the static obstacles of the map for entities with
+	 *         a footprint of the given size.
+	 */
+	public DistanceOracle getDistanceOracle(int footprint) {
+		if (distanceOracles[footprint] == null) {
+			distanceOracles[footprint] = new DistanceOracle(clearance, getRegionMap(footprint), footprint);
+		}
+		return distanceOracles[footprint];
+	}
+
+	/**
+	 * @return the paths already found in this game, shared by all its units.
+	 */
+	public PathCache getPathCache() {
+		if (pathCache == null) {
+			pathCache = new PathCache(clearance);
+		}
+		return pathCache;
+	}
+
+	/**
+	 * @return the flow fields towards the places several units are going to.
+	 */
+	public FlowFieldCache getFlowFields() {
+		if (flowFields == null) {
+			flowFields = new FlowFieldCache(clearance);
+		}
+		return flowFields;
+	}
+
+	/**
+	 * @return what limits the time spent planning paths in each cycle.
+	 */
+	public PathScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * @return what runs the searches of this game in planner threads.
+	 */
+	public AsyncPlanner getAsyncPlanner() {
+		if (asyncPlanner == null) {
+			asyncPlanner = new AsyncPlanner(clearance);
+		}
+		return asyncPlanner;
+	}
+
+	/**
+	 * @return a replanner ready to plan towards (gx,gy) from (sx,sy). It
+	 *         should be given back with releaseReplanner() once it is not needed.
+	 */
+	public DStarLite getReplanner(int sx, int sy, int gx, int gy, int footprint) {
+		DStarLite d = (replanners.isEmpty() ? new DStarLite(clearance) : replanners.removeFirst());
+		d.reset(sx, sy, gx, gy, footprint);
+		return d;
+	}
+
+	public void releaseReplanner(DStarLite d) {
+		replanners.add(d);
+	}
+
+	/**
+	 * @return the planner (and reservations) of the units moving cooperatively.
+	 */
+	public CooperativePlanner getCooperativePlanner() {
+		if (cooperativePlanner == null) {
+			cooperativePlanner = new CooperativePlanner(this, clearance.getWidth());
+		}
+		return cooperativePlanner;
+	}
+
+	/**
+	 * @return how the cell-level paths of this game are searched: STRATEGY if
+	 *         it is set, or else the strategy that suits the map best.
+	 */
+	public PlannerStrategy getPlannerStrategy() {
+		if (STRATEGY != null) {
+			return STRATEGY;
+		}
+		if (plannerStrategy == null) {
+			plannerStrategy = chooseStrategy();
+		}
+		return plannerStrategy;
+	}
+
+	/**
+	 * runs the same few searches (between random cells, over the static
+	 * obstacles of the map) with each strategy, and picks the one that did the
+	 * least work. Work is counted rather than timed so that the choice is
+	 * always the same for a given map.
+	 */
+	private PlannerStrategy chooseStrategy() {
+		final int width = clearance.getWidth();
+		final int height = clearance.getHeight();
+		GridSearch.Passability passability = new GridSearch.Passability() {
+			public boolean isPassable(int x, int y) {
+				return clearance.isFree(x, y, 1, 1);
+			}
+		};
+		PlannerStrategy[] strategies = { PlannerStrategy.ASTAR, PlannerStrategy.JUMP_POINTS };
+		long[] work = new long[strategies.length];
+		Random r = new Random(0);
+		for (int i = 0; i < CALIBRATION_SEARCHES; i++) {
+			int sx = r.nextInt(width), sy = r.nextInt(height);
+			int gx = r.nextInt(width), gy = r.nextInt(height);
+			if (!clearance.isFree(sx, sy, 1, 1) || !clearance.isFree(gx, gy, 1, 1)) {
+				continue;
+			}
+			for (int j = 0; j < strategies.length; j++) {
+				GridSearch s = strategies[j].newSearch(sx, sy, gx, gy, 0, 0, width, height, width, height,
+						passability);
+				s.begin(SearchSpace.get(width * height));
+				s.advance(Integer.MAX_VALUE);
+				work[j] += s.getCellsLooked() + EXPANSION_COST * s.getExpansions();
+			}
+		}
+		return (work[1] < work[0] ? strategies[1] : strategies[0]);
+	}
+
+	/**
+	 * to be called at the start of every game cycle.
+	 */
+	public void cycle() {
+		if (asyncPlanner != null) {
+			asyncPlanner.cycle();
+		}
+		scheduler.cycle();
+	}
+}
@@ -0,0 +1,117 @@
+package s3.ai.path;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import s3.base.S3;
+import s3.base.S3ClearanceMap;
+import s3.base.S3Headless;
+
+/**
+ * Compares the planner strategies on every map of a folder: the same random
+ * searches (between cells where an entity of the given footprint can stand,
+ * with the units of the map in the way) are run with each of them, and the
+ * cells expanded and time taken per search are reported. The paths found are
+ * checked to be as long as the A* ones ("other
+ * lengths" should be 0).
+ *
+ * usage: PlannerComparison [maps folder] [searches per map] [footprint]
+ */
+public class PlannerComparison {
+	private static final PlannerStrategy[] STRATEGIES = { PlannerStrategy.ASTAR, PlannerStrategy.JUMP_POINTS };
+
+	public static void main(String[] args) throws Exception {
+		File folder = new File(args.length > 0 ? args[0] : "maps");
+		int searches = (args.length > 1 ? Integer.parseInt(args[1]) : 500);
+		int footprint = (args.length > 2 ? Integer.parseInt(args[2]) : 1);
+
+		File[] files = folder.listFiles();
+		if (files == null) {
+			System.err.println("No such folder: " + folder);
+			return;
+		}
+		Arrays.sort(files);
+		System.out.println("map\tsize\tsearches\tstrategy\texpansions/search\tcells looked/search\tus/search\tother lengths\tchosen");
+		for (File f : files) {
+			if (f.getName().endsWith(".xml")) {
+				compare(f.getPath(), searches, footprint);
+			}
+		}
+	}
+
+	private static void compare(String map, int searches, int footprint) throws Exception {
+		S3 game = S3Headless.loadGame(map);
+		S3ClearanceMap clearance = game.getPathfinding().getClearanceMap();
+		final int width = clearance.getWidth();
+		final int height = clearance.getHeight();
+		final int fp = footprint;
+		final PassabilitySnapshot snapshot = new PassabilitySnapshot(clearance, game.getUnits());
+		GridSearch.Passability passability = new GridSearch.Passability() {
+			public boolean isPassable(int x, int y) {
+				return snapshot.isPassable(-1, x, y, fp, fp);
+			}
+		};
+
+		int[][] pairs = new int[searches][];
+		Random r = new Random(0);
+		for (int i = 0; i < searches; i++) {
+			pairs[i] = new int[] { freeCell(r, passability, width, height), freeCell(r, passability, width, height) };
+		}
+
+		int[] reference = null;
+		for (PlannerStrategy strategy : STRATEGIES) {
+			// once to warm up, once to measure:
+			run(strategy, pairs, passability, width, height);
+			long start = System.nanoTime();
+			long expansions = 0, looked = 0;
+			int[] lengths = new int[searches];
+			for (int i = 0; i < searches; i++) {
+				GridSearch s = search(strategy, pairs[i], passability, width, height);
+				expansions += s.getExpansions();
+				looked += s.getCellsLooked();
+				lengths[i] = (s.getResult() == null ? -1 : s.getResult().length);
+			}
+			long time = System.nanoTime() - start;
+			int different = 0;
+			if (reference == null) {
+				reference = lengths;
+			} else {
+				for (int i = 0; i < searches; i++) {
+					if (lengths[i] != reference[i]) {
+						different++;
+					}
+				}
+			}
+			System.out.println(new File(map).getName() + "\t" + width + "x" + height + "\t" + searches + "\t"
+					+ strategy + "\t" + (expansions / searches) + "\t" + (looked / searches) + "\t" + (time / 1000 / searches) + "\t" + different
+					+ "\t" + (strategy == game.getPathfinding().getPlannerStrategy() ? "*" : ""));
+		}
+	}
+
+	private static void run(PlannerStrategy strategy, int[][] pairs, GridSearch.Passability passability, int width,
+			int height) {
+		for (int[] pair : pairs) {
+			search(strategy, pair, passability, width, height);
+		}
+	}
+
+	private static GridSearch search(PlannerStrategy strategy, int[] pair, GridSearch.Passability passability,
+			int width, int height) {
+		GridSearch s = strategy.newSearch(pair[0] % width, pair[0] / width, pair[1] % width, pair[1] / width, 0, 0,
+				width, height, width, height, passability);
+		s.begin(SearchSpace.get(width * height));
+		s.advance(Integer.MAX_VALUE);
+		return s;
+	}
+
+	private static int freeCell(Random r, GridSearch.Passability passability, int width, int height) {
+		while (true) {
+			int x = r.nextInt(width);
+			int y = r.nextInt(height);
+			if (passability.isPassable(x, y)) {
+				return x + y * width;
+			}
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package s3.ai.path;
+
+/**
+ * The kind of search the cell-level paths of a game are planned with (see
+ * Pathfinding.getPlannerStrategy()). All of them find shortest paths, but they
+ * do not cost the same on every map: jump points pay off on open ground,
+ * while on maps made of narrow corridors A* expands about as many cells and
+ * does less work per cell.
+ */
+public interface PlannerStrategy {
+	PlannerStrategy ASTAR = new PlannerStrategy() {
+		public GridSearch newSearch(int sx, int sy, int gx, int gy, int x0, int y0, int x1, int y1, int width,
+				int height, GridSearch.Passability passability) {
+			return new AStarSearch(sx, sy, gx, gy, x0, y0, x1, y1, width, height, passability);
+		}
+
+		public String toString() {
+			return "A*";
+		}
+	};
+
+	PlannerStrategy JUMP_POINTS = new PlannerStrategy() {
+		public GridSearch newSearch(int sx, int sy, int gx, int gy, int x0, int y0, int x1, int y1, int width,
+				int height, GridSearch.Passability passability) {
+			return new JumpPointSearch(sx, sy, gx, gy, x0, y0, x1, y1, width, height, passability);
+		}
+
+		public String toString() {
+			return "JPS";
+		}
+	};
+
+	/**
+	 * @return a search from (sx,sy) to (gx,gy) over the rectangle [x0,x1) x
+	 *         [y0,y1) of a map of the given size. It has to be started with
+	 *         begin() or run().
+	 */
+	GridSearch newSearch(int sx, int sy, int gx, int gy, int x0, int y0, int x1, int y1, int width, int height,
+			GridSearch.Passability passability);
+}
@@ -0,0 +1,152 @@
+package s3.ai.path;
+
+import java.util.Arrays;
+
+import s3.base.S3ClearanceMap;
+
+/**
+ * Labels the connected regions of the cells an entity with a given square
+ * footprint can stand on, considering only static obstacles (terrain and
+ * buildings). Two cells in different regions can never be joined by a path,
+ * so searching between them can be skipped altogether.
+ *
+ * Regions are kept in a union-find over the cells. Cells that become passable
+ * (trees being chopped) are merged with their neighbours right away; cells
+ * that become blocked may split a region, so in that case all the labels are
+ * recomputed the next time they are asked for.
+ */
+public class RegionMap implements S3ClearanceMap.Listener {
+	private final S3ClearanceMap clearance;
+	private final int footprint;
+	private final int width, height;
+
+	/** union-find parent of every cell, or -1 for cells that are not passable. */
+	private final int[] parent;
+	private boolean rebuild = true;
+
+	public RegionMap(S3ClearanceMap clearance, int footprint) {
+		this.clearance = clearance;
+		this.footprint = footprint;
+		width = clearance.getWidth();
+		height = clearance.getHeight();
+		parent = new int[width * height];
+		clearance.addListener(this);
+	}
+
+	public int getFootprint() {
+		return footprint;
+	}
+
+	/**
+	 * @return the region of cell (x,y), or -1 if the cell is outside of the map
+	 *         or not passable.
+	 */
+	public int regionOf(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			return -1;
+		}
+		if (rebuild) {
+			label();
+		}
+		int i = x + y * width;
+		return parent[i] < 0 ? -1 : find(i);
+	}
+
+	/**
+	 * @return true if both cells are passable and in the same region.
+	 */
+	public boolean connected(int x0, int y0, int x1, int y1) {
+		int r = regionOf(x0, y0);
+		return r >= 0 && r == regionOf(x1, y1);
+	}
+
+	public void obstaclesChanged(int x0, int y0, int x1, int y1) {
+		if (rebuild) {
+			return;
+		}
+		x0 = Math.max(0, x0 - footprint + 1);
+		y0 = Math.max(0, y0 - footprint + 1);
+		x1 = Math.min(width, x1);
+		y1 = Math.min(height, y1);
+		for (int y = y0; y < y1; y++) {
+			for (int x = x0; x < x1; x++) {
+				int i = x + y * width;
+				boolean was = parent[i] >= 0;
+				boolean is = isPassable(x, y);
+				if (was && !is) {
+					// the region may have been cut in two
+					rebuild = true;
+					return;
+				}
+				if (!was && is) {
+					parent[i] = i;
+					join(i, x, y);
+				}
+			}
+		}
+	}
+
+	private boolean isPassable(int x, int y) {
+		return clearance.isFree(x, y, footprint, footprint);
+	}
+
+	private void label() {
+		Arrays.fill(parent, -1);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (isPassable(x, y)) {
+					int i = x + y * width;
+					parent[i] = i;
+					join(i, x, y);
+				}
+			}
+		}
+		rebuild = false;
+	}
+
+	/**
+	 * merges the passable cell i = (x,y) with its passable neighbours.
+	 */
+	private void join(int i, int x, int y) {
+		if (x > 0 && parent[i - 1] >= 0) {
+			union(i, i - 1);
+		}
+		if (x + 1 < width && parent[i + 1] >= 0) {
+			union(i, i + 1);
+		}
+		if (y > 0 && parent[i - width] >= 0) {
+			union(i, i - width);
+		}
+		if (y + 1 < height && parent[i + width] >= 0) {
+			union(i, i + width);
+		}
+	}
+
+	private int find(int i) {
+		int root = i;
+		while (parent[root] != root) {
+			root = parent[root];
+		}
+		// path compression:
+		while (parent[i] != root) {
+			int next = parent[i];
+			parent[i] = root;
+			i = next;
+		}
+		return root;
+	}
+
+	private void union(int a, int b) {
+		int ra = find(a);
+		int rb = find(b);
+		if (ra != rb) {
+			// the smaller id becomes the root, so labels do not depend on the
+			// order in which cells were opened
+			if (ra < rb) {
+				parent[rb] = ra;
+			} else {
+				parent[ra] = rb;
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package s3.ai.path;
+
+import java.util.Arrays;
+
+/**
+ * Per-node bookkeeping of a grid search (cost so far, parent, closed flag) kept
+ * in plain int arrays indexed by cell id (x + y * width), plus the open list.
+ *
+ * The arrays are reused from one search to the next: instead of clearing
+ * them, every search gets a new generation number and a node only counts as
+ * seen/closed if its stamp matches the current generation. One instance is
+ * pooled per thread (see get()), so searches in different threads never share
+ * arrays.
+ */
+public class SearchSpace {
+	private static final ThreadLocal<SearchSpace> pool = new ThreadLocal<SearchSpace>() {
+		protected SearchSpace initialValue() {
+			return new SearchSpace(0);
+		}
+	};
+
+	public final NodeHeap open;
+
+	private int[] g;
+	private int[] parent;
+	private int[] seen;
+	private int[] closed;
+	private int generation = 0;
+
+	public SearchSpace(int size) {
+		open = new NodeHeap(size);
+		g = new int[size];
+		parent = new int[size];
+		seen = new int[size];
+		closed = new int[size];
+	}
+
+	/**
+	 * @return the search space of the calling thread, ready for a new search
+	 *         over nodes in [0, size).
+	 */
+	public static SearchSpace get(int size) {
+		SearchSpace s = pool.get();
+		s.begin(size);
+		return s;
+	}
+
+	/**
+	 * forgets the previous search, growing the arrays if needed.
+	 */
+	public void begin(int size) {
+		if (size > g.length) {
+			g = new int[size];
+			parent = new int[size];
+			seen = new int[size];
+			closed = new int[size];
+			generation = 0;
+		}
+		open.ensureCapacity(size);
+		open.clear();
+		if (generation == Integer.MAX_VALUE) {
+			Arrays.fill(seen, 0);
+			Arrays.fill(closed, 0);
+			generation = 0;
+		}
+		generation++;
+	}
+
+	/**
+	 * @return true if the node got a cost during the current search.
+	 */
+	public boolean isSeen(int node) {
+		return seen[node] == generation;
+	}
+
+	public boolean isClosed(int node) {
+		return closed[node] == generation;
+	}
+
+	public void close(int node) {
+		closed[node] = generation;
+	}
+
+	/**
+	 * @return the cost so far of a node seen in the current search.
+	 */
+	public int getG(int node) {
+		return g[node];
+	}
+
+	/**
+	 * @return the parent of a node seen in the current search, or -1.
+	 */
+	public int getParent(int node) {
+		return parent[node];
+	}
+
+	public void set(int node, int cost, int parentNode) {
+		seen[node] = generation;
+		g[node] = cost;
+		parent[node] = parentNode;
+	}
+}
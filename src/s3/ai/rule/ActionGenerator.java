@@ -11,7 +11,7 @@ import s3.entities.WPeasant;
 import s3.entities.WTownhall;
 import s3.util.Pair;
 
-public record ActionGenerator(S3 game) {
+public record ActionGenerator(S3 game, SymbolTable symbols) {
 
 	public List<S3Action> generate(List<Term> terms) {
 		List<S3Action> actions = new ArrayList<>();
@@ -26,9 +26,9 @@ public record ActionGenerator(S3 game) {
 
 	private S3Action buildAction(Term term) {
 		S3Action action = null;
-		int firstArg = Integer.parseInt(term.getArg(0).getValue());
+		int firstArg = symbols.intValue(term.getArg(0));
 
-		switch (term.functor) {
+		switch (term.getName()) {
 		case "doTrainWorker" -> action = train(firstArg, 0);
 		case "doTrainKnight" -> action = train(firstArg, 1);
 		case "doBuildBase" -> action = build(firstArg, 0);
@@ -36,11 +36,11 @@ public record ActionGenerator(S3 game) {
 
 		default -> {
 			if (term.argSize() > 1) {
-				if (term.functor.equals("doAttack")) {
-					int enemyId = Integer.parseInt(term.getArg(1).getValue());
+				if (term.getName().equals("doAttack")) {
+					int enemyId = symbols.intValue(term.getArg(1));
 					action = attack(firstArg, enemyId);
 
-				} else if (term.functor.equals("doHarvest")) {
+				} else if (term.getName().equals("doHarvest")) {
 					action = harvest(term);
 				}
 			}
@@ -54,16 +54,17 @@ public record ActionGenerator(S3 game) {
 	}
 
 	private S3Action harvest(Term t) {
-		int workerId = Integer.parseInt(t.getArg(0).getValue());
+		int workerId = symbols.intValue(t.getArg(0));
 
-		if (t.getArg(1).getValue().contains(",")) { // chop wood
-			String[] treeLocation = t.getArg(1).getValue().split(",");
+		String target = symbols.name(t.getArg(1));
+		if (target.contains(",")) { // chop wood
+			String[] treeLocation = target.split(",");
 			int treeX = Integer.parseInt(treeLocation[0]);
 			int treeY = Integer.parseInt(treeLocation[1]);
 			return new S3Action(workerId, S3Action.ACTION_HARVEST, treeX, treeY);
 
 		} else { // mine gold
-			int goldMineId = Integer.parseInt(t.getArg(1).getValue());
+			int goldMineId = symbols.intValue(t.getArg(1));
 			return new S3Action(workerId, S3Action.ACTION_HARVEST, goldMineId);
 		}
 	}
@@ -1,36 +1,88 @@
 package s3.ai.rule;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
+/**
+ * The values of the variables of a rule while it is matched. Variables are
+ * bound one at a time as patterns are matched, and unbound (undo()) when the
+ * search backtracks, last bound first, so nothing is allocated on the way.
+ */
 public class Bindings {
-	private final HashMap<String, String> bindingMap;
-	protected boolean satisfiable;
+	public static final int UNBOUND = -1;
+
+	private final int[] values = new int[Symbol.VARIABLES];
+
+	/** the variables in the order they were bound. */
+	private final int[] trail = new int[Symbol.VARIABLES];
+	private int size = 0;
 
 	public Bindings() {
-		bindingMap = new HashMap<>();
-		satisfiable = true;
+		Arrays.fill(values, UNBOUND);
+	}
+
+	/**
+	 * @return the id of the constant "arg" of a term, or the value of the
+	 *         variable "arg" (or UNBOUND).
+	 */
+	public int valueOf(int arg) {
+		return arg >= 0 ? arg : values[Symbol.variableIndex(arg)];
+	}
+
+	/**
+	 * gives variable "code" (of a term) the given value.
+	 */
+	public void bind(int code, int value) {
+		int v = Symbol.variableIndex(code);
+		if (values[v] == UNBOUND) {
+			trail[size++] = v;
+		}
+		values[v] = value;
 	}
 
-	public boolean isSatisfiable() {
-		return satisfiable;
+	/**
+	 * @return whether variable "code" was bound before the given mark().
+	 */
+	public boolean isBoundBefore(int code, int mark) {
+		int v = Symbol.variableIndex(code);
+		if (values[v] == UNBOUND) {
+			return false;
+		}
+		for (int i = mark; i < size; i++) {
+			if (trail[i] == v) {
+				return false;
+			}
+		}
+		return true;
 	}
 
-	public void add(String variable, String value) {
-		bindingMap.put(variable, value);
+	public int mark() {
+		return size;
 	}
 
-	public String get(String variable) {
-		return bindingMap.get(variable);
+	/**
+	 * unbinds the variables bound since the given mark().
+	 */
+	public void undo(int mark) {
+		while (size > mark) {
+			values[trail[--size]] = UNBOUND;
+		}
 	}
 
-	public boolean contains(String key) {
-		return bindingMap.containsKey(key);
+	/**
+	 * unbinds all the variables, also the ones bound through values().
+	 */
+	public void clear() {
+		Arrays.fill(values, UNBOUND);
+		size = 0;
 	}
 
-	public Bindings update(Bindings another) {
-		Bindings clonedBindings = new Bindings();
-		clonedBindings.bindingMap.putAll(this.bindingMap);
-		clonedBindings.bindingMap.putAll(another.bindingMap);
-		return clonedBindings;
+	/**
+	 * @return the values of the variables (or UNBOUND), by
+	 *         Symbol.variableIndex(). Compiled rules (see RuleCompiler) bind
+	 *         them here directly, without the trail, as they know beforehand
+	 *         which variables each step binds.
+	 */
+	int[] values() {
+		return values;
 	}
 }
@@ -1,164 +1,282 @@
 package s3.ai.rule;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Objects;
 
 @SuppressWarnings("ClassCanBeRecord")
 public class InferenceEngine {
+	/** whether rules are matched following a Plan, or pattern after pattern. */
+	public static boolean PLANNING = true;
+
+	/** whether plans are compiled (see RuleCompiler), or interpreted. */
+	public static boolean COMPILING = true;
+
+	/**
+	 * whether compiled plans are also interpreted, to check that they find the
+	 * same solutions (the interpreted ones are used).
+	 */
+	public static boolean CHECKING = false;
+
 	private final KnowledgeBase knowledgeBase;
+	private final SymbolTable symbols;
+	private final int woodAvailable, woodNeededFor, goldNeededFor;
 	private final List<Rule> rules;
 
+	/** how each rule is matched (null until it is first needed). */
+	private final Plan[] plans;
+	private int plansMade = 0;
+
+	private final RuleCompiler compiler;
+	private int mismatches = 0;
+
+	/** the bindings of the rule being matched. */
+	private final Bindings bindings = new Bindings();
+
+	/** the values of the variable a reducer narrows down. */
+	private int[] values = new int[16];
+
 	public InferenceEngine(KnowledgeBase knowledgeBase, List<Rule> rules) {
 		this.knowledgeBase = knowledgeBase;
 		this.rules = rules;
+		symbols = knowledgeBase.getSymbols();
+		woodAvailable = symbols.intern("woodAvailable");
+		woodNeededFor = symbols.intern("woodNeededFor");
+		goldNeededFor = symbols.intern("goldNeededFor");
+		plans = new Plan[rules.size()];
+		compiler = new RuleCompiler(this, knowledgeBase, bindings);
 	}
 
 	public List<Term> inference() {
 		List<Term> firedActions = new ArrayList<>();
 
-		for (Rule rule : rules) {
-			solve(rule, firedActions);
+		// the facts derived (or taken out) here only hold for this cycle:
+		knowledgeBase.mark();
+		for (int i = 0; i < rules.size(); i++) {
+			solve(i, firedActions);
 		}
+		knowledgeBase.rollback();
 
 		return firedActions;
 	}
 
-	private void solve(Rule rule, List<Term> firedActions) {
-		Bindings solution = unification(rule.getPatterns());
-		if (solution.isSatisfiable()) {
-			triggerEffects(rule, solution, firedActions);
+	private void solve(int ruleIndex, List<Term> firedActions) {
+		Rule rule = rules.get(ruleIndex);
+		Plan plan = getPlan(ruleIndex);
+		bindings.clear();
+		if (search(plan)) {
+			removeIdleFacts(plan);
+			triggerEffects(rule, firedActions);
 		}
+		bindings.clear();
+	}
 
+	/**
+	 * @return true if the plan has a solution, which is then left in
+	 *         "bindings" (found by the compiled plan, if it could be compiled).
+	 */
+	private boolean search(Plan plan) {
+		RuleCompiler.Matcher matcher = (COMPILING ? getMatcher(plan) : null);
+		if (matcher == null) {
+			return unification(plan, 0);
+		} else if (!CHECKING) {
+			return matcher.match();
+		}
+
+		boolean found = matcher.match();
+		int[] solution = bindings.values().clone();
+		bindings.clear();
+		boolean expected = unification(plan, 0);
+		if (found != expected || !Arrays.equals(solution, bindings.values())) {
+			mismatches++;
+			System.err.println("InferenceEngine: the compiled plan " + plan + " found " + (found ? "" : "no ")
+					+ "solution, " + (expected ? "" : "no ") + "solution interpreted");
+		}
+		return expected;
 	}
 
-	private Bindings unification(List<Term> patterns) {
-		Bindings bindings = new Bindings();
-		return unification(patterns, 0, bindings);
+	private RuleCompiler.Matcher getMatcher(Plan plan) {
+		if (!plan.compiled) {
+			plan.matcher = compiler.compile(plan);
+			plan.compiled = true;
+		}
+		return plan.matcher;
+	}
+
+	private Plan getPlan(int ruleIndex) {
+		Plan plan = plans[ruleIndex];
+		if (!PLANNING) {
+			if (plan == null || plan.isPlanned()) {
+				plan = plans[ruleIndex] = Plan.leftToRight(rules.get(ruleIndex));
+			}
+		} else if (plan == null || !plan.isPlanned() || plan.isStale(knowledgeBase)) {
+			plan = plans[ruleIndex] = Plan.make(rules.get(ruleIndex), knowledgeBase);
+			plansMade++;
+		}
+		return plan;
 	}
 
-	private Bindings unification(List<Term> patterns, Integer patternIndex, Bindings bindings) {
-		if (patternIndex == patterns.size()) {
-			return bindings;
+	/**
+	 * @return true if the steps of the plan from "step" on have a solution,
+	 *         which is then left in "bindings".
+	 */
+	private boolean unification(Plan plan, int step) {
+		if (step == plan.steps.length) {
+			return true;
 
 		} else {
-			Term pattern = patterns.get(patternIndex).applyBindings(bindings);
+			Term pattern = plan.steps[step];
 
 			if (pattern.isMathExpression) {
-				return solveMathExpression(pattern, patterns, patternIndex, bindings);
+				return solveMathExpression(pattern, plan, step);
 
 			} else if (pattern.isNegation) {
-				return solveNegation(pattern, patterns, patternIndex, bindings);
+				return solveNegation(pattern, plan, step);
 
 			} else if (pattern.canUnite) {
-				return solveRegularPattern(pattern, patterns, patternIndex, bindings);
+				return solveRegularPattern(pattern, plan, step);
 
 			} else { // Unknown pattern type, this case should never be reach
-				return new NoSolution();
+				return false;
 			}
 		}
 	}
 
-	private Bindings solveMathExpression(Term pattern, List<Term> patterns, int patternIndex, Bindings bindings) {
-		if (pattern.mathExpressionHolds()) {
+	private boolean solveMathExpression(Term pattern, Plan plan, int step) {
+		if (pattern.mathExpressionHolds(bindings)) {
 			// find solution for the rest patterns
-			return unification(patterns, patternIndex + 1, bindings);
+			return unification(plan, step + 1);
 
 		} else {
-			return new NoSolution();
+			return false;
 		}
 	}
 
-	private Bindings solveNegation(Term pattern, List<Term> patterns, int patternIndex, Bindings bindings) {
-		Term reversedPattern = pattern.reverse();
-
-		boolean satisfiable = false;
-		outerLoop: for (Term t : knowledgeBase.getTerms(reversedPattern.functor)) {
-
-			for (int i = 0; i < reversedPattern.argSize(); i++) {
-				Symbol argP = reversedPattern.getArg(i);
-				Symbol argT = t.getArg(i);
-				if ((!argP.isVariable() || argP.isBound()) && !argP.equals(argT)) {
-					continue outerLoop;
-				}
+	private boolean solveNegation(Term pattern, Plan plan, int step) {
+		List<Term> facts = knowledgeBase.lookup(pattern, bindings);
+		for (int i = 0; i < facts.size(); i++) {
+			if (pattern.matches(facts.get(i), bindings)) {
+				// existed at least one fact can make the reversed pattern be satisfied
+				return false;
 			}
-
-			satisfiable = true;
-			break;
 		}
 
-		if (satisfiable) { // existed at least one fact can make the reversed pattern be satisfied
-			return new NoSolution();
-
-		} else {
-			// find solution for the rest patterns
-			return unification(patterns, patternIndex + 1, bindings);
-		}
+		// find solution for the rest patterns
+		return unification(plan, step + 1);
 	}
 
-	private Bindings solveRegularPattern(Term pattern, List<Term> patterns, int patternIndex, Bindings bindings) {
-		outerLoop: for (Term t : knowledgeBase.getTerms(pattern.functor)) {
-
-			Bindings newBindings = new Bindings();
+	private boolean solveRegularPattern(Term pattern, Plan plan, int step) {
+		// only the facts with the same value as the most selective bound argument:
+		List<Term> facts = knowledgeBase.lookup(pattern, bindings);
+		if (plan.reducers[step] != null) {
+			facts = reduce(plan, step, facts);
+		}
+		int mark = bindings.mark();
+		outerLoop: for (int f = 0; f < facts.size(); f++) {
+			Term t = facts.get(f);
 
 			for (int i = 0; i < pattern.argSize(); i++) {
-				Symbol argP = pattern.getArg(i);
-				Symbol argT = t.getArg(i);
-				if (argP.isVariable() && !argP.isBound()) {
-					newBindings.add(argP.getValue(), argT.getValue());
-				} else if (!argP.equals(argT)) {
+				int argP = pattern.getArg(i);
+				if (Symbol.isVariable(argP) && !bindings.isBoundBefore(argP, mark)) {
+					bindings.bind(argP, t.getArg(i));
+				} else if (bindings.valueOf(argP) != t.getArg(i)) {
+					bindings.undo(mark);
 					continue outerLoop;
 				}
 			}
 
-			Bindings updatedBindings = bindings.update(newBindings);
 			// find solution for the rest patterns
-			Bindings solution = unification(patterns, patternIndex + 1, updatedBindings);
-
-			if (solution.isSatisfiable()) {
-				updateIdleFacts(pattern, updatedBindings);
-				return solution;
+			if (unification(plan, step + 1)) {
+				return true;
 			} // else, current solution bindings fail in the rest patterns, continue outerLoop
+			bindings.undo(mark);
+		}
+		return false;
+	}
 
+	/**
+	 * @return the facts of a step that have a value of the variable it shares
+	 *         with its reducer that the reducer has (or "facts" if the reducer
+	 *         has as many facts).
+	 */
+	List<Term> reduce(Plan plan, int step, List<Term> facts) {
+		Term reducer = plan.reducers[step];
+		List<Term> reducerFacts = knowledgeBase.lookup(reducer, bindings);
+		if (reducerFacts.size() * 2 >= facts.size()) {
+			return facts;
+		}
+		int n = 0;
+		int position = plan.reducerPositions[step];
+		for (int i = 0; i < reducerFacts.size(); i++) {
+			Term t = reducerFacts.get(i);
+			if (reducer.matches(t, bindings)) {
+				if (n == values.length) {
+					values = Arrays.copyOf(values, n * 2);
+				}
+				values[n++] = t.getArg(position);
+			}
 		}
-		return new NoSolution();
+		Arrays.sort(values, 0, n);
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (i == 0 || values[i] != values[i - 1]) {
+				values[distinct++] = values[i];
+			}
+		}
+		return knowledgeBase.lookupAmong(plan.steps[step], plan.positions[step], values, distinct, plan.buffers[step]);
 	}
 
-	private void updateIdleFacts(Term pattern, Bindings updatedBindings) {
-		// update idle units, one unit can't be assigned 2 tasks
-		if (pattern.functor.contains("idle")) {
-			knowledgeBase.remove(pattern.applyBindings(updatedBindings));
+	/**
+	 * takes out the idle facts matched by the solution, so that one unit is
+	 * not assigned 2 tasks (last step first).
+	 */
+	private void removeIdleFacts(Plan plan) {
+		for (int i = plan.steps.length - 1; i >= 0; i--) {
+			Term pattern = plan.steps[i];
+			if (pattern.canUnite && pattern.getName().contains("idle")) {
+				knowledgeBase.remove(pattern, bindings);
+			}
 		}
 	}
 
-	private void triggerEffects(Rule rule, Bindings solution, List<Term> firedActions) {
+	private void triggerEffects(Rule rule, List<Term> firedActions) {
 		for (Term effect : rule.getEffects()) {
-			Term updatedEffect = effect.applyBindings(solution);
+			Term updatedEffect = effect.applyBindings(bindings);
 
 			if (!updatedEffect.isAction) {
 				knowledgeBase.addTerm(updatedEffect);
 
 			} else {
 				firedActions.add(updatedEffect);
-				updatedResourceAvailability(rule.getPatterns(), solution);
+				updatedResourceAvailability(rule.getPatterns());
 			}
 		}
 	}
 
-	private void updatedResourceAvailability(List<Term> patterns, Bindings solution) {
+	private void updatedResourceAvailability(List<Term> patterns) {
 		// update resource availability,
 		// avoid conflict between actions for snatching limited resources
 		for (Term pattern : patterns) {
-			for (String resource : new String[] { "wood", "gold" }) {
-				if (Objects.equals(pattern.functor, resource + "NeededFor")) {
-					int resourceConsumed = Integer.parseInt(pattern.applyBindings(solution).getArg(1).getValue());
-					Symbol resourceFact = knowledgeBase.getTerms("woodAvailable").get(0).getArg(0);
-					int resourceAvailable = Integer.parseInt(resourceFact.getValue());
-					int resourceRemain = resourceAvailable - resourceConsumed;
-					resourceFact.setValue(String.valueOf(resourceRemain));
-				}
+			if (pattern.functor == woodNeededFor || pattern.functor == goldNeededFor) {
+				int resourceConsumed = symbols.intValue(bindings.valueOf(pattern.getArg(1)));
+				Term resourceFact = knowledgeBase.getTerms(woodAvailable).get(0);
+				int resourceAvailable = symbols.intValue(resourceFact.getArg(0));
+				int resourceRemain = resourceAvailable - resourceConsumed;
+				knowledgeBase.remove(resourceFact);
+				knowledgeBase.addTerm(new Term(symbols, woodAvailable, symbols.number(resourceRemain)));
 			}
 		}
 	}
 
+	public String toString() {
+		StringBuilder sb = new StringBuilder("InferenceEngine: " + plansMade + " plans made");
+		if (CHECKING) {
+			sb.append(", ").append(mismatches).append(" compiled plans not matching");
+		}
+		for (Plan plan : plans) {
+			sb.append("\n  ").append(plan);
+		}
+		return sb.toString();
+	}
+
 }
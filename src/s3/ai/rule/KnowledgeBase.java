@@ -1,35 +1,474 @@
 package s3.ai.rule;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
+import s3.util.IntHashMap;
+
+/**
+ * The facts, grouped by functor. The facts of a functor are kept in the order
+ * they are matched in: each one has an order (the ones added without one go
+ * last), so that facts can be added and removed one at a time as what they
+ * describe changes, and still be matched in the same order as if they had all
+ * been added again from scratch.
+ *
+ * The facts of a functor can also be looked up by the value of one of their
+ * arguments: the first time a pattern with that argument bound is looked up
+ * (see lookup()), an index of the facts by that argument is built, and it is
+ * kept up to date from then on. The facts of an index entry are in the same
+ * order as all the facts, so matching them gives the same solutions.
+ *
+ * What is changed between mark() and rollback() (the facts derived during an
+ * inference, or taken out of it) is undone by rollback().
+ */
 class KnowledgeBase {
-	private final Map<String, List<Term>> facts;
+	/** whether lookup() uses the indexes (or returns all the facts of the functor). */
+	public static boolean INDEXING = true;
+
+	/** functors with fewer facts than this are not looked up through indexes. */
+	public static int MIN_INDEXED_FACTS = 8;
+
+	private static final long LAST = Long.MAX_VALUE;
+
+	private static final Bindings NO_BINDINGS = new Bindings();
+
+	private final SymbolTable symbols;
+	private final IntHashMap<Facts> facts;
+
+	/** the changes done since mark(), if logging: */
+	private boolean logging = false;
+	private int logSize = 0;
+	private Facts[] logFacts = new Facts[16];
+	private Term[] logTerms = new Term[16];
+	private long[] logOrders = new long[16];
+	private long[] logSeqs = new long[16];
+	private boolean[] logAdded = new boolean[16];
 
-	public KnowledgeBase() {
-		facts = new HashMap<>();
+	private long lookups = 0, indexedLookups = 0, indexesBuilt = 0;
+
+	/** for lookupAmong(). */
+	private FactList[] mergeLists = new FactList[8];
+	private int[] mergeCursors = new int[8];
+
+	public KnowledgeBase(SymbolTable symbols) {
+		this.symbols = symbols;
+		facts = new IntHashMap<>();
+	}
+
+	/**
+	 * @return the table the constants of the facts are interned in.
+	 */
+	public SymbolTable getSymbols() {
+		return symbols;
 	}
 
 	public void addTerm(Term t) {
-		if (!facts.containsKey(t.functor)) {
-			facts.put(t.functor, new ArrayList<>());
+		addTerm(t, LAST);
+	}
+
+	/**
+	 * adds a fact after the ones of the same functor with an order lower or
+	 * equal to the given one.
+	 */
+	public void addTerm(Term t, long order) {
+		Facts fs = facts.get(t.functor);
+		if (fs == null) {
+			fs = new Facts();
+			facts.put(t.functor, fs);
 		}
-		facts.get(t.functor).add(t);
+		long seq = fs.nextSeq++;
+		fs.add(t, order, seq);
+		log(fs, t, order, seq, true);
 	}
 
-	public List<Term> getTerms(String functor) {
-		List<Term> ts = facts.get(functor);
-		return ts != null ? ts : new ArrayList<>();
+	public List<Term> getTerms(int functor) {
+		Facts fs = facts.get(functor);
+		return fs != null ? fs.all.terms : Collections.<Term> emptyList();
+	}
+
+	/**
+	 * @return the facts that can match "pattern" with the given bindings: the
+	 *         ones with the same value as the most selective of its bound
+	 *         arguments (the one with the fewest facts), in order. They still
+	 *         have to be matched against the other arguments.
+	 */
+	public List<Term> lookup(Term pattern, Bindings bindings) {
+		return lookup(pattern, bindings, true).terms;
+	}
+
+	private FactList lookup(Term pattern, Bindings bindings, boolean buildIndexes) {
+		Facts fs = facts.get(pattern.functor);
+		if (fs == null) {
+			return FactList.EMPTY;
+		}
+		lookups++;
+		FactList best = fs.all;
+		if (!INDEXING || best.size() < MIN_INDEXED_FACTS) {
+			return best;
+		}
+		for (int p = 0; p < pattern.argSize(); p++) {
+			int v = bindings.valueOf(pattern.getArg(p));
+			if (v == Bindings.UNBOUND) {
+				continue;
+			}
+			IntHashMap<FactList> index = fs.getIndex(p);
+			if (index == null) {
+				if (!buildIndexes) {
+					continue;
+				}
+				index = fs.buildIndex(p);
+				indexesBuilt++;
+			}
+			FactList l = index.get(v);
+			if (l == null || l.size() == 0) {
+				indexedLookups++;
+				return FactList.EMPTY;
+			}
+			if (l.size() < best.size()) {
+				best = l;
+			}
+		}
+		if (best != fs.all) {
+			indexedLookups++;
+		}
+		return best;
+	}
+
+	/**
+	 * puts in "out", in order, the facts of the functor of "pattern" whose
+	 * argument at the given position is one of values[0..n) (with no
+	 * repeated values). The other arguments are not looked at.
+	 *
+	 * @return out
+	 */
+	public List<Term> lookupAmong(Term pattern, int position, int[] values, int n, ArrayList<Term> out) {
+		out.clear();
+		Facts fs = facts.get(pattern.functor);
+		if (fs == null) {
+			return out;
+		}
+		lookups++;
+		indexedLookups++;
+		IntHashMap<FactList> index = index(fs, position);
+		if (mergeLists.length < n) {
+			mergeLists = new FactList[n];
+			mergeCursors = new int[n];
+		}
+		int k = 0;
+		for (int i = 0; i < n; i++) {
+			FactList l = index.get(values[i]);
+			if (l != null && l.size() > 0) {
+				mergeLists[k] = l;
+				mergeCursors[k++] = 0;
+			}
+		}
+		// merges the entries (each in order), taking the first fact of any of them each time:
+		while (true) {
+			int best = -1;
+			for (int i = 0; i < k; i++) {
+				FactList l = mergeLists[i];
+				int c = mergeCursors[i];
+				if (c < l.size() && (best < 0 || l.isBefore(c, mergeLists[best], mergeCursors[best]))) {
+					best = i;
+				}
+			}
+			if (best < 0) {
+				break;
+			}
+			out.add(mergeLists[best].terms.get(mergeCursors[best]++));
+		}
+		for (int i = 0; i < k; i++) {
+			mergeLists[i] = null;
+		}
+		return out;
+	}
+
+	/**
+	 * @return the number of facts of a functor.
+	 */
+	public int count(int functor) {
+		Facts fs = facts.get(functor);
+		return fs != null ? fs.all.size() : 0;
+	}
+
+	/**
+	 * @return the number of facts of a functor with the given value at the
+	 *         given position.
+	 */
+	public int count(int functor, int position, int value) {
+		Facts fs = facts.get(functor);
+		if (fs == null) {
+			return 0;
+		}
+		FactList l = index(fs, position).get(value);
+		return l != null ? l.size() : 0;
+	}
+
+	/**
+	 * @return the number of different values at the given position among the
+	 *         facts of a functor (about: values whose facts are all gone can
+	 *         still count).
+	 */
+	public int distinct(int functor, int position) {
+		Facts fs = facts.get(functor);
+		return fs != null ? index(fs, position).size() : 0;
+	}
+
+	private IntHashMap<FactList> index(Facts fs, int position) {
+		IntHashMap<FactList> index = fs.getIndex(position);
+		if (index == null) {
+			index = fs.buildIndex(position);
+			indexesBuilt++;
+		}
+		return index;
 	}
 
 	public void clear() {
 		facts.clear();
+		logging = false;
+		logSize = 0;
 	}
 
+	/**
+	 * removes all the facts equal to t.
+	 */
 	public void remove(Term t) {
-		facts.get(t.functor).removeIf(fact -> fact.equals(t));
+		Facts fs = facts.get(t.functor);
+		if (fs == null) {
+			return;
+		}
+		FactList l = fs.all;
+		for (int i = l.size() - 1; i >= 0; i--) {
+			if (l.terms.get(i).equals(t)) {
+				removeAt(fs, l, i);
+			}
+		}
+	}
+
+	/**
+	 * removes all the facts equal to "pattern" with the given bindings (all
+	 * of its variables have to be bound).
+	 */
+	public void remove(Term pattern, Bindings bindings) {
+		Facts fs = facts.get(pattern.functor);
+		if (fs == null) {
+			return;
+		}
+		FactList l = lookup(pattern, bindings, true);
+		for (int i = l.size() - 1; i >= 0; i--) {
+			if (pattern.matches(l.terms.get(i), bindings)) {
+				removeAt(fs, l, i);
+			}
+		}
+	}
+
+	/**
+	 * removes t itself (not the other facts equal to it).
+	 */
+	public void retract(Term t) {
+		Facts fs = facts.get(t.functor);
+		if (fs == null) {
+			return;
+		}
+		// t has no variables, so any index built can narrow the search:
+		FactList l = lookup(t, NO_BINDINGS, false);
+		for (int i = l.size() - 1; i >= 0; i--) {
+			if (l.terms.get(i) == t) {
+				removeAt(fs, l, i);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * removes the fact at index i of l, one of the lists of fs.
+	 */
+	private void removeAt(Facts fs, FactList l, int i) {
+		Term t = l.terms.get(i);
+		long order = l.orders[i];
+		long seq = l.seqs[i];
+		fs.remove(t, order, seq);
+		log(fs, t, order, seq, false);
+	}
+
+	/**
+	 * starts logging the changes, to be undone by rollback().
+	 */
+	public void mark() {
+		logging = true;
+		logSize = 0;
+	}
+
+	/**
+	 * undoes the changes done since mark(), last first.
+	 */
+	public void rollback() {
+		for (int i = logSize - 1; i >= 0; i--) {
+			if (logAdded[i]) {
+				logFacts[i].remove(logTerms[i], logOrders[i], logSeqs[i]);
+			} else {
+				logFacts[i].add(logTerms[i], logOrders[i], logSeqs[i]);
+			}
+			logFacts[i] = null;
+			logTerms[i] = null;
+		}
+		logging = false;
+		logSize = 0;
+	}
+
+	private void log(Facts fs, Term t, long order, long seq, boolean added) {
+		if (!logging) {
+			return;
+		}
+		if (logSize == logFacts.length) {
+			int n = logSize * 2;
+			logFacts = Arrays.copyOf(logFacts, n);
+			logTerms = Arrays.copyOf(logTerms, n);
+			logOrders = Arrays.copyOf(logOrders, n);
+			logSeqs = Arrays.copyOf(logSeqs, n);
+			logAdded = Arrays.copyOf(logAdded, n);
+		}
+		logFacts[logSize] = fs;
+		logTerms[logSize] = t;
+		logOrders[logSize] = order;
+		logSeqs[logSize] = seq;
+		logAdded[logSize] = added;
+		logSize++;
+	}
+
+	public String toString() {
+		return "KnowledgeBase: " + lookups + " lookups, " + indexedLookups + " through an index, " + indexesBuilt
+				+ " indexes built";
+	}
+
+	/**
+	 * the facts of a functor, and their indexes.
+	 */
+	private static class Facts {
+		final FactList all = new FactList();
+
+		/** the facts by the value of argument p, or null if not built. */
+		private IntHashMap<FactList>[] indexes = newIndexes(0);
+
+		/** the facts with the same order are kept in the order they were added in. */
+		long nextSeq = 0;
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private static IntHashMap<FactList>[] newIndexes(int n) {
+			return new IntHashMap[n];
+		}
+
+		IntHashMap<FactList> getIndex(int p) {
+			return p < indexes.length ? indexes[p] : null;
+		}
+
+		IntHashMap<FactList> buildIndex(int p) {
+			if (p >= indexes.length) {
+				indexes = Arrays.copyOf(indexes, p + 1);
+			}
+			IntHashMap<FactList> index = new IntHashMap<>();
+			indexes[p] = index;
+			for (int i = 0; i < all.size(); i++) {
+				Term t = all.terms.get(i);
+				if (p < t.argSize()) {
+					entry(index, t.getArg(p)).insert(t, all.orders[i], all.seqs[i]);
+				}
+			}
+			return index;
+		}
+
+		void add(Term t, long order, long seq) {
+			all.insert(t, order, seq);
+			for (int p = 0; p < indexes.length && p < t.argSize(); p++) {
+				if (indexes[p] != null) {
+					entry(indexes[p], t.getArg(p)).insert(t, order, seq);
+				}
+			}
+		}
+
+		void remove(Term t, long order, long seq) {
+			all.remove(order, seq);
+			for (int p = 0; p < indexes.length && p < t.argSize(); p++) {
+				if (indexes[p] != null) {
+					indexes[p].get(t.getArg(p)).remove(order, seq);
+				}
+			}
+		}
+
+		private static FactList entry(IntHashMap<FactList> index, int value) {
+			FactList l = index.get(value);
+			if (l == null) {
+				l = new FactList();
+				index.put(value, l);
+			}
+			return l;
+		}
+	}
+
+	/**
+	 * facts sorted by (order, seq), which is unique for each fact.
+	 */
+	private static class FactList {
+		static final FactList EMPTY = new FactList();
+
+		final ArrayList<Term> terms = new ArrayList<>();
+		long[] orders = new long[4];
+		long[] seqs = new long[4];
+
+		int size() {
+			return terms.size();
+		}
+
+		/**
+		 * @return whether fact i goes before fact j of l.
+		 */
+		boolean isBefore(int i, FactList l, int j) {
+			return orders[i] < l.orders[j] || (orders[i] == l.orders[j] && seqs[i] < l.seqs[j]);
+		}
+
+		/**
+		 * @return the index of the first fact at or after (order, seq).
+		 */
+		private int find(long order, long seq) {
+			int lo = 0, hi = terms.size();
+			if (hi > 0 && (orders[hi - 1] < order || (orders[hi - 1] == order && seqs[hi - 1] < seq))) {
+				// the usual case, facts added last
+				return hi;
+			}
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (orders[mid] < order || (orders[mid] == order && seqs[mid] < seq)) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		void insert(Term t, long order, long seq) {
+			int i = find(order, seq);
+			int n = terms.size();
+			if (n == orders.length) {
+				orders = Arrays.copyOf(orders, n * 2);
+				seqs = Arrays.copyOf(seqs, n * 2);
+			}
+			System.arraycopy(orders, i, orders, i + 1, n - i);
+			System.arraycopy(seqs, i, seqs, i + 1, n - i);
+			orders[i] = order;
+			seqs[i] = seq;
+			terms.add(i, t);
+		}
+
+		void remove(long order, long seq) {
+			int i = find(order, seq);
+			int n = terms.size();
+			System.arraycopy(orders, i + 1, orders, i, n - i - 1);
+			System.arraycopy(seqs, i + 1, seqs, i, n - i - 1);
+			terms.remove(i);
+		}
 	}
 
 }
@@ -1,8 +0,0 @@
-package s3.ai.rule;
-
-public class NoSolution extends Bindings {
-	NoSolution() {
-		super();
-		satisfiable = false;
-	}
-}
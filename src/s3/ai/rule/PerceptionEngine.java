@@ -1,22 +1,50 @@
 package s3.ai.rule;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
 import s3.base.S3;
 import s3.base.S3Action;
 import s3.entities.*;
 
-public class PerceptionEngine {
+/**
+ * Keeps the facts about the game in the knowledge base. They are not all
+ * computed again every cycle: the game tells which units came, went or
+ * changed status (and which trees were cut), and only the facts of those
+ * units are taken out and added again, at the same place among the facts of
+ * their functor (the order of the units in the game). So the cost of a cycle
+ * depends on what happened in the game, not on how many units there are.
+ */
+public class PerceptionEngine implements S3.Listener {
 	private final S3 game;
 	private final String currentOwner;
 	private final KnowledgeBase knowledgeBase;
-	private final List<Term> cachedFacts;
+	private final SymbolTable symbols;
 	private WPlayer currentPlayer;
 
+	/** the facts of each unit with a known type. */
+	private final IdentityHashMap<WUnit, UnitFacts> units = new IdentityHashMap<>();
+
+	/** the units whose facts have to be computed again. */
+	private final Set<UnitFacts> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	/** our idle workers, with the nearest tree to each of them. */
+	private final Set<UnitFacts> idleWorkers = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	/** the order of the next unit to enter the game. */
+	private long nextOrder = 0;
+
+	private int gold = -1, wood = -1, workers = -1, workersCounted = 0;
+	private Term goldFact, woodFact, workersFact;
+	private boolean baseUnderConstruction = false, barracksUnderConstruction = false;
+
 	public PerceptionEngine(KnowledgeBase knowledgeBase, S3 game, String playerID) {
 		this.knowledgeBase = knowledgeBase;
+		symbols = knowledgeBase.getSymbols();
 		this.game = game;
 		currentOwner = playerID;
 
@@ -26,16 +54,21 @@ public class PerceptionEngine {
 			}
 		}
 
-		cachedFacts = new ArrayList<>();
-		updateResourceNeededToCache();
+		addResourceNeeded();
+		for (WUnit unit : game.getUnits()) {
+			unitAdded(unit);
+		}
+		game.addListener(this);
 	}
 
-	private void updateResourceNeededToCache() {
+	private void addResourceNeeded() {
 		WUnit[] units = new WUnit[] { new WTownhall(), new WPeasant(), new WBarracks(), new WGoldMine(),
 				new WKnight() }; // keep consistent with action generator, WFootman/WKnight
 		for (WUnit u : units) {
-			cachedFacts.add(new Term("goldNeededFor", getUnitType(u), String.valueOf(u.getCost_gold())));
-			cachedFacts.add(new Term("woodNeededFor", getUnitType(u), String.valueOf(u.getCost_wood())));
+			knowledgeBase.addTerm(
+					new Term(symbols, "goldNeededFor", getUnitType(u), String.valueOf(u.getCost_gold())));
+			knowledgeBase.addTerm(
+					new Term(symbols, "woodNeededFor", getUnitType(u), String.valueOf(u.getCost_wood())));
 		}
 	}
 
@@ -51,104 +84,202 @@ public class PerceptionEngine {
 		};
 	}
 
-	public void updateKnowledge() {
-		knowledgeBase.clear();
-		updateResourceAvailability();
-		UpdateInfoForAllUnits();
-		loadFactsFromCached();
+	public void unitAdded(WUnit unit) {
+		UnitFacts f = units.get(unit);
+		if (f == null) {
+			String unitType = getUnitType(unit);
+			if (Objects.equals(unitType, "Unknown")) {
+				return;
+			}
+			f = new UnitFacts(unit, unitType);
+			units.put(unit, f);
+		}
+		// it goes to the end of game.getUnits():
+		f.order = nextOrder++;
+		f.present = true;
+		changed.add(f);
 	}
 
-	private void updateResourceAvailability() {
-		knowledgeBase.addTerm(new Term("goldAvailable", String.valueOf(currentPlayer.getGold())));
-		knowledgeBase.addTerm(new Term("woodAvailable", String.valueOf(currentPlayer.getWood())));
+	public void unitRemoved(WUnit unit) {
+		UnitFacts f = units.get(unit);
+		if (f != null) {
+			f.present = false;
+			changed.add(f);
+		}
 	}
 
-	private void UpdateInfoForAllUnits() {
-		List<WOTree> trees = findAllTrees();
-		int workersAvailable = 0;
+	public void unitStatusChanged(WUnit unit) {
+		// we only care about whether our units are idle or not
+		UnitFacts f = units.get(unit);
+		if (f != null && Objects.equals(currentOwner, unit.getOwner())) {
+			changed.add(f);
+		}
+	}
 
-		for (WUnit unit : game.getUnits()) {
+	public void mapEntityChanged(int x, int y) {
+		boolean treeAdded = game.mapEntityAt(x, y) instanceof WOTree;
+		int cell = x + y * game.getMap().getWidth();
+		for (UnitFacts f : idleWorkers) {
+			// only the workers next to the tree that was cut can have another
+			// nearest tree now (any of them if a tree was planted):
+			if (treeAdded || f.treeCell == cell) {
+				changed.add(f);
+			}
+		}
+	}
 
-			String unitType = getUnitType(unit);
+	/**
+	 * the units given these actions change status in between cycles, which the
+	 * game does not report.
+	 */
+	public void actionsGiven(List<S3Action> actions) {
+		for (S3Action a : actions) {
+			WUnit unit = game.getUnit(a.m_targetUnit);
+			if (unit != null) {
+				unitStatusChanged(unit);
+			}
+		}
+	}
 
-			if (Objects.equals(unitType, "Worker") && Objects.equals(unit.getOwner(), currentOwner)) {
-				workersAvailable++;
+	public void updateKnowledge() {
+		updateResourceAvailability();
+		for (UnitFacts f : idleWorkers) {
+			// an idle worker pushed around by others has another nearest tree:
+			if (f.unit.getX() != f.x || f.unit.getY() != f.y) {
+				changed.add(f);
+			}
+		}
+		for (UnitFacts f : changed) {
+			retractFacts(f);
+			if (f.present) {
+				addFacts(f);
+			} else {
+				units.remove(f.unit);
 			}
+		}
+		changed.clear();
+		if (workers != workersCounted) {
+			workers = workersCounted;
+			workersFact = replace(workersFact, new Term(symbols, "workersAvailable", String.valueOf(workers)));
+		}
+	}
 
-			if (!Objects.equals(unitType, "Unknown")) {
-				String unitId = String.valueOf(unit.getEntityID());
-				knowledgeBase.addTerm(new Term("type", unitId, unitType));
-				checkOneUnit(unit, unitId, unitType, trees);
+	private void updateResourceAvailability() {
+		if (currentPlayer.getGold() != gold) {
+			gold = currentPlayer.getGold();
+			goldFact = replace(goldFact, new Term(symbols, "goldAvailable", String.valueOf(gold)));
+		}
+		if (currentPlayer.getWood() != wood) {
+			wood = currentPlayer.getWood();
+			woodFact = replace(woodFact, new Term(symbols, "woodAvailable", String.valueOf(wood)));
+		}
+	}
 
-			}
+	private Term replace(Term oldFact, Term newFact) {
+		if (oldFact != null) {
+			knowledgeBase.retract(oldFact);
 		}
-		knowledgeBase.addTerm(new Term("workersAvailable", String.valueOf(workersAvailable)));
+		knowledgeBase.addTerm(newFact);
+		return newFact;
 	}
 
-	private List<WOTree> findAllTrees() {
-		List<WOTree> trees = new ArrayList<>();
-		for (int i = 0; i < game.getMap().getWidth(); i++) {
-			for (int j = 0; j < game.getMap().getHeight(); j++) {
-				S3PhysicalEntity e = game.getMap().getEntity(i, j);
-				if (e instanceof WOTree) {
-					trees.add((WOTree) e);
-				}
-			}
+	private void retractFacts(UnitFacts f) {
+		for (Term t : f.facts) {
+			knowledgeBase.retract(t);
+		}
+		f.facts.clear();
+		if (f.worker) {
+			workersCounted--;
+			f.worker = false;
 		}
-		return trees;
+		idleWorkers.remove(f);
+		f.treeCell = -1;
 	}
 
-	private void checkOneUnit(WUnit unit, String unitId, String unitType, List<WOTree> trees) {
+	private void addFacts(UnitFacts f) {
+		WUnit unit = f.unit;
+		String unitId = String.valueOf(unit.getEntityID());
+		// the "type" facts of a unit are followed by the nearest tree of it,
+		// hence the orders 2 * order and 2 * order + 1:
+		add(f, new Term(symbols, "type", unitId, f.unitType), 2 * f.order);
 
 		if (Objects.equals(currentOwner, unit.getOwner())) {
-			knowledgeBase.addTerm(new Term("own", unitId));
+			add(f, new Term(symbols, "own", unitId), f.order);
+			if (Objects.equals(f.unitType, "Worker")) {
+				workersCounted++;
+				f.worker = true;
+			}
 
 			// we only case about whether our units idle or not, not enemies
 			if (unit.getStatus() == null) { // need adding logic to clear status in WTroop.cleanup()
-				knowledgeBase.addTerm(new Term("idle", unitId));
+				add(f, new Term(symbols, "idle", unitId), f.order);
 
-				if (Objects.equals(unitType, "Worker")) {
-					checkNearestTree(unit, trees); // we only case about the nearest trees for those idle workers
+				if (Objects.equals(f.unitType, "Worker")) {
+					checkNearestTree(f); // we only case about the nearest trees for those idle workers
 				}
 
 			} else {
-				// some building is going to be built, add own-it as cached fact,
+				// some building is going to be built, add own-it as a lasting fact,
 				// so that it won't be over constructed
 				if (unit.getStatus().m_action == S3Action.ACTION_BUILD) {
 					String buildingType = (String) unit.getStatus().m_parameters.get(0);
-					@SuppressWarnings("SpellCheckingInspection")
-					String ownBuildingFact = Objects.equals(buildingType, "WTownhall") ? "ownBase" : "ownBarrack";
-					cachedFacts.add(new Term(ownBuildingFact, "-99")); // -1 will never be used by real unit
+					if (Objects.equals(buildingType, "WTownhall")) {
+						if (!baseUnderConstruction) {
+							baseUnderConstruction = true;
+							knowledgeBase.addTerm(new Term(symbols, "ownBase", "-99"), -1); // -99 will never be used by real unit
+						}
+					} else if (!barracksUnderConstruction) {
+						barracksUnderConstruction = true;
+						knowledgeBase.addTerm(new Term(symbols, "ownBarrack", "-99"), -1);
+					}
 				}
 			}
 
 		} else {
-			knowledgeBase.addTerm(new Term("enemy", unitId));
+			add(f, new Term(symbols, "enemy", unitId), f.order);
 		}
 	}
 
-	private void checkNearestTree(WUnit unit, List<WOTree> trees) {
-		WOTree nearestTree = null;
-		int leastDist = 9999;
-		int unitX = unit.getX();
-		int unitY = unit.getY();
-		for (WOTree t : trees) {
-			int dist = Math.abs(t.getX() - unitX) + Math.abs(t.getY() - unitY);
-			if (dist < leastDist) {
-				leastDist = dist;
-				nearestTree = t;
-			}
-		}
+	private void add(UnitFacts f, Term fact, long order) {
+		knowledgeBase.addTerm(fact, order);
+		f.facts.add(fact);
+	}
 
+	private void checkNearestTree(UnitFacts f) {
+		f.x = f.unit.getX();
+		f.y = f.unit.getY();
+		idleWorkers.add(f);
+		WOTree nearestTree = game.nearestTree(f.x, f.y);
 		if (nearestTree != null) {
+			f.treeCell = nearestTree.getX() + nearestTree.getY() * game.getMap().getWidth();
 			String location = nearestTree.getX() + "," + nearestTree.getY();
-			knowledgeBase.addTerm(new Term("type", location, "Tree"));
+			add(f, new Term(symbols, "type", location, "Tree"), 2 * f.order + 1);
 		}
 	}
 
-	public void loadFactsFromCached() {
-		for (Term fact : cachedFacts) {
-			knowledgeBase.addTerm(fact);
+	/**
+	 * a unit and the facts added for it.
+	 */
+	private static class UnitFacts {
+		final WUnit unit;
+		final String unitType;
+		final List<Term> facts = new ArrayList<>();
+
+		/** the position of the unit in game.getUnits() (relative to the others). */
+		long order;
+
+		/** false once it left the game. */
+		boolean present;
+
+		/** whether it is counted in workersAvailable. */
+		boolean worker = false;
+
+		/** for idle workers: where they were, and the cell of their nearest tree (or -1). */
+		int x, y, treeCell = -1;
+
+		UnitFacts(WUnit unit, String unitType) {
+			this.unit = unit;
+			this.unitType = unitType;
 		}
 	}
 
@@ -0,0 +1,259 @@
+package s3.ai.rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The order in which InferenceEngine matches the patterns of a rule, chosen
+ * so that it finds the same (first) solution as matching them left to right,
+ * with less work:
+ *
+ * - the patterns that bind variables (generators) keep their order, since it
+ * is the order in which solutions are found. The others (comparisons,
+ * negations and patterns with all their variables bound: tests) are moved
+ * back to right after the first generators that bind the same of their
+ * variables as when they were reached left to right, cheapest first, so they
+ * cut the search as soon as they can and give the same answers.
+ *
+ * - a generator can have its facts narrowed down by a later pattern that
+ * shares one of the variables it binds and has few facts (a reducer): only
+ * the facts with a value of that variable that the reducer has are matched
+ * (still in their order), since the others would fail when the reducer is
+ * reached. For example, in own(X),idleWorker(X),... only the units with an
+ * idleWorker fact are tried, instead of all of our units.
+ *
+ * The choice depends on the number of facts of each functor, so a plan is made
+ * again when they have changed too much (see isStale()).
+ */
+class Plan {
+	/** the patterns, in the order they are matched. */
+	final Term[] steps;
+
+	/**
+	 * for each step, the pattern whose facts narrow down the facts of the
+	 * step (null if none), the position in the step of the variable they
+	 * share, and its position in the reducer.
+	 */
+	final Term[] reducers;
+	final int[] positions;
+	final int[] reducerPositions;
+
+	/** for the facts of each step that has a reducer. */
+	final ArrayList<Term>[] buffers;
+
+	/** this plan compiled by RuleCompiler (null if it could not be), once compiled is set. */
+	RuleCompiler.Matcher matcher;
+	boolean compiled = false;
+
+	/** false for the plans that match left to right. */
+	private final boolean planned;
+
+	/** the number of facts of the functors of the patterns, when planned. */
+	private final int[] functors;
+	private final int[] counts;
+
+	private Plan(boolean planned, Term[] steps, Term[] reducers, int[] positions, int[] reducerPositions,
+			int[] functors, int[] counts) {
+		this.planned = planned;
+		this.steps = steps;
+		this.reducers = reducers;
+		this.positions = positions;
+		this.reducerPositions = reducerPositions;
+		this.functors = functors;
+		this.counts = counts;
+		buffers = newBuffers(steps.length);
+		for (int i = 0; i < steps.length; i++) {
+			if (reducers[i] != null) {
+				buffers[i] = new ArrayList<>();
+			}
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static ArrayList<Term>[] newBuffers(int n) {
+		return new ArrayList[n];
+	}
+
+	/**
+	 * @return the plan that matches the patterns left to right.
+	 */
+	static Plan leftToRight(Rule rule) {
+		Term[] steps = rule.getPatterns().toArray(new Term[0]);
+		return new Plan(false, steps, new Term[steps.length], new int[steps.length], new int[steps.length], new int[0],
+				new int[0]);
+	}
+
+	static Plan make(Rule rule, KnowledgeBase kb) {
+		List<Term> patterns = rule.getPatterns();
+		int n = patterns.size();
+
+		// the variables bound before each pattern, left to right, and the
+		// variables bound after each generator:
+		int[] boundBefore = new int[n];
+		int[] generators = new int[n];
+		int[] boundAfter = new int[n + 1];
+		int m = 0, bound = 0;
+		for (int i = 0; i < n; i++) {
+			Term p = patterns.get(i);
+			boundBefore[i] = bound;
+			if (p.canUnite && (variables(p) & ~bound) != 0) {
+				generators[m++] = i;
+				bound |= variables(p);
+				boundAfter[m] = bound;
+			}
+		}
+
+		// the tests after each number of generators:
+		List<List<Term>> tests = new ArrayList<>();
+		List<double[]> costs = new ArrayList<>();
+		for (int k = 0; k <= m; k++) {
+			tests.add(new ArrayList<>());
+			costs.add(new double[0]);
+		}
+		int k = 0;
+		for (int i = 0; i < n; i++) {
+			Term p = patterns.get(i);
+			if (k < m && generators[k] == i) {
+				k++;
+				continue;
+			}
+			int vs = variables(p);
+			int slot = 0;
+			while ((boundAfter[slot] & vs) != (boundBefore[i] & vs)) {
+				slot++;
+			}
+			double cost = (p.isMathExpression ? 0 : estimate(p, boundAfter[slot], kb));
+			// cheapest first (and in their order for the same cost):
+			List<Term> l = tests.get(slot);
+			double[] c = costs.get(slot);
+			int at = l.size();
+			while (at > 0 && c[at - 1] > cost) {
+				at--;
+			}
+			l.add(at, p);
+			c = Arrays.copyOf(c, c.length + 1);
+			System.arraycopy(c, at, c, at + 1, c.length - at - 1);
+			c[at] = cost;
+			costs.set(slot, c);
+		}
+
+		Term[] steps = new Term[n];
+		Term[] reducers = new Term[n];
+		int[] positions = new int[n];
+		int[] reducerPositions = new int[n];
+		int s = 0;
+		for (k = 0; k <= m; k++) {
+			if (k > 0) {
+				int g = generators[k - 1];
+				chooseReducer(patterns, g, boundAfter[k - 1], kb, s, reducers, positions, reducerPositions);
+				steps[s++] = patterns.get(g);
+			}
+			for (Term t : tests.get(k)) {
+				steps[s++] = t;
+			}
+		}
+
+		int[] functors = new int[n];
+		int[] counts = new int[n];
+		for (int i = 0; i < n; i++) {
+			functors[i] = patterns.get(i).functor;
+			counts[i] = (patterns.get(i).isMathExpression ? 0 : kb.count(functors[i]));
+		}
+		return new Plan(true, steps, reducers, positions, reducerPositions, functors, counts);
+	}
+
+	/**
+	 * picks, among the patterns after generator g that share one of the
+	 * variables it binds, the one expected to have the fewest facts, if it
+	 * has fewer than g.
+	 */
+	private static void chooseReducer(List<Term> patterns, int g, int bound, KnowledgeBase kb, int step,
+			Term[] reducers, int[] positions, int[] reducerPositions) {
+		Term generator = patterns.get(g);
+		double best = estimate(generator, bound, kb);
+		for (int j = g + 1; j < patterns.size(); j++) {
+			Term p = patterns.get(j);
+			int shared = variables(p) & variables(generator) & ~bound;
+			if (!p.canUnite || shared == 0) {
+				continue;
+			}
+			double e = estimate(p, bound, kb);
+			if (e < best) {
+				int v = Integer.numberOfTrailingZeros(shared);
+				best = e;
+				reducers[step] = p;
+				positions[step] = position(generator, v);
+				reducerPositions[step] = position(p, v);
+			}
+		}
+	}
+
+	boolean isPlanned() {
+		return planned;
+	}
+
+	/**
+	 * @return whether the number of facts of some functor is now more than
+	 *         twice or less than half what it was when planning (give or take
+	 *         a few facts).
+	 */
+	boolean isStale(KnowledgeBase kb) {
+		for (int i = 0; i < functors.length; i++) {
+			int now = kb.count(functors[i]);
+			if (now > counts[i] * 2 + 4 || counts[i] > now * 2 + 4) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return about how many facts match p once the given variables are bound.
+	 */
+	private static double estimate(Term p, int bound, KnowledgeBase kb) {
+		double n = kb.count(p.functor);
+		for (int i = 0; i < p.argSize(); i++) {
+			int a = p.getArg(i);
+			if (!Symbol.isVariable(a)) {
+				n = Math.min(n, kb.count(p.functor, i, a));
+			} else if ((bound & (1 << Symbol.variableIndex(a))) != 0) {
+				n /= Math.max(1, kb.distinct(p.functor, i));
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * @return the variables of a term, as a bit set.
+	 */
+	private static int variables(Term t) {
+		int vs = 0;
+		for (int i = 0; i < t.argSize(); i++) {
+			if (Symbol.isVariable(t.getArg(i))) {
+				vs |= 1 << Symbol.variableIndex(t.getArg(i));
+			}
+		}
+		return vs;
+	}
+
+	private static int position(Term t, int variable) {
+		for (int i = 0; i < t.argSize(); i++) {
+			if (Symbol.isVariable(t.getArg(i)) && Symbol.variableIndex(t.getArg(i)) == variable) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < steps.length; i++) {
+			sb.append(i > 0 ? ", " : "").append(steps[i]);
+			if (reducers[i] != null) {
+				sb.append(" [among ").append(reducers[i]).append("]");
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -10,13 +10,4 @@ public record Rule(List<Term> patterns, List<Term> effects) {
 	public List<Term> getEffects() {
 		return effects;
 	}
-
-	public void reset() {
-		for (Term pattern : patterns) {
-			pattern.reset();
-		}
-		for (Term effect : effects) {
-			effect.reset();
-		}
-	}
 }
@@ -15,11 +15,12 @@ public class RuleBasedAI implements s3.ai.AI {
 
 	public RuleBasedAI(String playerID, S3 game) {
 		m_playerID = playerID;
-		KnowledgeBase knowledgeBase = new KnowledgeBase();
+		SymbolTable symbols = new SymbolTable();
+		KnowledgeBase knowledgeBase = new KnowledgeBase(symbols);
 		perceptionEngine = new PerceptionEngine(knowledgeBase, game, playerID);
-		List<Rule> rules = new RuleLoader("src/s3/ai/rule/rules-S3.txt").getRules();
+		List<Rule> rules = new RuleLoader("src/s3/ai/rule/rules-S3.txt", symbols).getRules();
 		inferenceEngine = new InferenceEngine(knowledgeBase, rules);
-		actionGenerator = new ActionGenerator(game);
+		actionGenerator = new ActionGenerator(game, symbols);
 	}
 
 	@Override
@@ -27,6 +28,7 @@ public class RuleBasedAI implements s3.ai.AI {
 		perceptionEngine.updateKnowledge();
 		List<Term> triggeredEffects = inferenceEngine.inference();
 		List<S3Action> firedActions = actionGenerator.generate(triggeredEffects);
+		perceptionEngine.actionsGiven(firedActions);
 		actions.addAll(firedActions);
 	}
 
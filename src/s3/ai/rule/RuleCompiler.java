@@ -0,0 +1,258 @@
+package s3.ai.rule;
+
+import java.util.List;
+
+/**
+ * Compiles the plan of a rule (see Plan) into a chain of closures, one per
+ * step, each of which matches its pattern and calls the next one, so the
+ * patterns are not interpreted again every time they are matched:
+ *
+ * - what is known before matching is worked out once: which arguments of a
+ * pattern are constants, which are variables bound by earlier steps (to be
+ * compared) and which are variables it binds, and which comparison a math
+ * expression is.
+ *
+ * - variables are slots of an array (the values() of the bindings of the
+ * engine), written and read directly, with no trail: the variables a step
+ * binds are unbound when it has run out of facts.
+ *
+ * A compiled plan finds the same solution as InferenceEngine.unification()
+ * (InferenceEngine.CHECKING compares them), and leaves it in the bindings.
+ * Like unification(), it does not change the facts: the idle facts used by
+ * the solution are taken out by the engine afterwards.
+ */
+final class RuleCompiler {
+	/**
+	 * a compiled plan, or what is left of it from some step on.
+	 */
+	interface Matcher {
+		/**
+		 * @return whether there is a solution (then left in the bindings).
+		 */
+		boolean match();
+	}
+
+	private static final Matcher SOLVED = () -> true;
+	private static final Matcher FAILED = () -> false;
+
+	private final InferenceEngine engine;
+	private final KnowledgeBase knowledgeBase;
+	private final SymbolTable symbols;
+	private final Bindings bindings;
+	private final int[] slots;
+	private final int greater, less, equal;
+
+	RuleCompiler(InferenceEngine engine, KnowledgeBase knowledgeBase, Bindings bindings) {
+		this.engine = engine;
+		this.knowledgeBase = knowledgeBase;
+		this.bindings = bindings;
+		slots = bindings.values();
+		symbols = knowledgeBase.getSymbols();
+		greater = symbols.intern(">");
+		less = symbols.intern("<");
+		equal = symbols.intern("=");
+	}
+
+	/**
+	 * @return the compiled plan, or null if it has a pattern that cannot be
+	 *         compiled (and has to be interpreted).
+	 */
+	Matcher compile(Plan plan) {
+		// the variables bound before each step:
+		int n = plan.steps.length;
+		int[] bound = new int[n];
+		int b = 0;
+		for (int i = 0; i < n; i++) {
+			bound[i] = b;
+			if (plan.steps[i].canUnite) {
+				b |= variables(plan.steps[i]);
+			}
+		}
+
+		Matcher next = SOLVED;
+		for (int i = n - 1; i >= 0; i--) {
+			Term pattern = plan.steps[i];
+			if (pattern.isMathExpression) {
+				next = mathExpression(pattern, bound[i], next);
+			} else if (pattern.isNegation) {
+				next = negation(pattern, bound[i], next);
+			} else if (pattern.canUnite) {
+				next = regularPattern(plan, i, bound[i], next);
+			} else {
+				return null;
+			}
+		}
+		return next;
+	}
+
+	private Matcher mathExpression(Term pattern, int bound, Matcher next) {
+		int left = pattern.getArg(0), right = pattern.getArg(1);
+		if (!isKnownNumber(left, bound) || !isKnownNumber(right, bound)) {
+			// an unbound variable or a constant that is not a number:
+			return FAILED;
+		}
+		if (pattern.functor != greater && pattern.functor != less && pattern.functor != equal) {
+			return FAILED;
+		}
+		int operator = pattern.functor;
+		// the slot of a variable, or -1 for a constant:
+		int leftSlot = slot(left), rightSlot = slot(right);
+		return () -> {
+			int l = leftSlot < 0 ? left : slots[leftSlot];
+			int r = rightSlot < 0 ? right : slots[rightSlot];
+			return symbols.isNumber(l) && symbols.isNumber(r)
+					&& compare(operator, symbols.intValue(l), symbols.intValue(r)) && next.match();
+		};
+	}
+
+	private boolean compare(int operator, int left, int right) {
+		return operator == greater ? left > right : operator == less ? left < right : left == right;
+	}
+
+	private Matcher negation(Term pattern, int bound, Matcher next) {
+		Checks checks = new Checks(pattern, bound);
+		return () -> {
+			List<Term> facts = knowledgeBase.lookup(pattern, bindings);
+			for (int f = 0; f < facts.size(); f++) {
+				if (checks.hold(facts.get(f))) {
+					return false;
+				}
+			}
+			return next.match();
+		};
+	}
+
+	private Matcher regularPattern(Plan plan, int step, int bound, Matcher next) {
+		Term pattern = plan.steps[step];
+		Checks checks = new Checks(pattern, bound);
+		boolean reduced = plan.reducers[step] != null;
+
+		// the variables the pattern binds (the last position of the ones
+		// repeated, as in unification()):
+		int n = 0;
+		int[] positions = new int[pattern.argSize()];
+		int[] variables = new int[pattern.argSize()];
+		for (int i = 0; i < pattern.argSize(); i++) {
+			int a = pattern.getArg(i);
+			if (Symbol.isVariable(a) && (bound & (1 << Symbol.variableIndex(a))) == 0) {
+				positions[n] = i;
+				variables[n++] = Symbol.variableIndex(a);
+			}
+		}
+		int binds = n;
+
+		if (binds == 0) {
+			// a test:
+			return () -> {
+				List<Term> facts = knowledgeBase.lookup(pattern, bindings);
+				for (int f = 0; f < facts.size(); f++) {
+					if (checks.hold(facts.get(f)) && next.match()) {
+						return true;
+					}
+				}
+				return false;
+			};
+
+		} else if (binds == 1) {
+			int position = positions[0], variable = variables[0];
+			return () -> {
+				List<Term> facts = knowledgeBase.lookup(pattern, bindings);
+				if (reduced) {
+					facts = engine.reduce(plan, step, facts);
+				}
+				for (int f = 0; f < facts.size(); f++) {
+					Term t = facts.get(f);
+					if (checks.hold(t)) {
+						slots[variable] = t.getArg(position);
+						if (next.match()) {
+							return true;
+						}
+					}
+				}
+				slots[variable] = Bindings.UNBOUND;
+				return false;
+			};
+
+		} else {
+			return () -> {
+				List<Term> facts = knowledgeBase.lookup(pattern, bindings);
+				if (reduced) {
+					facts = engine.reduce(plan, step, facts);
+				}
+				for (int f = 0; f < facts.size(); f++) {
+					Term t = facts.get(f);
+					if (checks.hold(t)) {
+						for (int i = 0; i < binds; i++) {
+							slots[variables[i]] = t.getArg(positions[i]);
+						}
+						if (next.match()) {
+							return true;
+						}
+					}
+				}
+				for (int i = 0; i < binds; i++) {
+					slots[variables[i]] = Bindings.UNBOUND;
+				}
+				return false;
+			};
+		}
+	}
+
+	/**
+	 * the arguments of a pattern a fact has to have: its constants, and the
+	 * values of its variables bound before it.
+	 */
+	private final class Checks {
+		private final int n;
+		private final int[] positions;
+
+		/** a constant, or the slot of a variable (-slot - 1). */
+		private final int[] expected;
+
+		Checks(Term pattern, int bound) {
+			int k = 0;
+			positions = new int[pattern.argSize()];
+			expected = new int[pattern.argSize()];
+			for (int i = 0; i < pattern.argSize(); i++) {
+				int a = pattern.getArg(i);
+				if (!Symbol.isVariable(a) || (bound & (1 << Symbol.variableIndex(a))) != 0) {
+					positions[k] = i;
+					expected[k++] = a;
+				}
+			}
+			n = k;
+		}
+
+		boolean hold(Term t) {
+			for (int i = 0; i < n; i++) {
+				int e = expected[i];
+				if ((e >= 0 ? e : slots[-e - 1]) != t.getArg(positions[i])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * @return whether a is a number, or a variable bound before (whose value
+	 *         can only be checked when matching).
+	 */
+	private boolean isKnownNumber(int a, int bound) {
+		return Symbol.isVariable(a) ? (bound & (1 << Symbol.variableIndex(a))) != 0 : symbols.isNumber(a);
+	}
+
+	private static int slot(int a) {
+		return Symbol.isVariable(a) ? Symbol.variableIndex(a) : -1;
+	}
+
+	private static int variables(Term t) {
+		int vs = 0;
+		for (int i = 0; i < t.argSize(); i++) {
+			if (Symbol.isVariable(t.getArg(i))) {
+				vs |= 1 << Symbol.variableIndex(t.getArg(i));
+			}
+		}
+		return vs;
+	}
+}
@@ -9,11 +9,13 @@ import java.util.regex.Pattern;
 
 public class RuleLoader {
 	private final String filePath;
+	private final SymbolTable symbols;
 	private final List<Rule> rules;
 	private final boolean loaded;
 
-	public RuleLoader(String filePath) {
+	public RuleLoader(String filePath, SymbolTable symbols) {
 		this.filePath = filePath;
+		this.symbols = symbols;
 		rules = new ArrayList<>();
 		loaded = false;
 	}
@@ -90,7 +92,7 @@ public class RuleLoader {
 					String arg = arguments[i];
 					arguments[i] = '"' != arg.charAt(0) ? arg : arg.substring(1, arg.length() - 1);
 				}
-				terms.add(new Term(functor, arguments));
+				terms.add(new Term(symbols, functor, arguments));
 
 			} else {
 				for (String operator : new String[] { ">", "<", "=" }) {
@@ -98,7 +100,7 @@ public class RuleLoader {
 						String[] functorAndArguments = term.split(operator);
 						String leftOperand = functorAndArguments[0];
 						String rightOperand = functorAndArguments[1];
-						terms.add(new Term(operator, leftOperand, rightOperand));
+						terms.add(new Term(symbols, operator, leftOperand, rightOperand));
 					}
 				}
 			}
@@ -2,69 +2,38 @@ package s3.ai.rule;
 
 import static java.lang.Character.isUpperCase;
 
-import java.util.Objects;
+/**
+ * How variables are coded in terms. Variables are a single upper case letter
+ * (as "X"), coded as negative ints, one per letter (see variable()), so they
+ * never clash with the ids of constants (>= 0), which are kept in the
+ * SymbolTable of each AI.
+ */
+public final class Symbol {
+	public static final int VARIABLES = 26;
 
-public class Symbol {
-	private final boolean isVariable;
-	private boolean isBound;
-	private String value;
-	private String bindValue;
-
-	public Symbol(String value) {
-		this.value = value;
-		this.isVariable = value.length() == 1 && isUpperCase(value.charAt(0));
-		isBound = false;
-	}
-
-	public boolean isVariable() {
-		return isVariable;
-	}
-
-	public boolean isBound() {
-		return isBound;
-	}
-
-	public void bind(String bindValue) {
-		if (isVariable && bindValue != null) {
-			this.bindValue = bindValue;
-			isBound = true;
-		}
-	}
-
-	@Override
-	@SuppressWarnings("MethodDoesntCallSuperMethod")
-	public Symbol clone() {
-		Symbol clonedSymbol = new Symbol(this.value);
-		clonedSymbol.bind(this.bindValue);
-		return clonedSymbol;
-	}
-
-	public String getValue() {
-		if (isBound) { // use the bindValue instead of variable name
-			return bindValue;
-		} else {
-			return value;
-		}
+	private Symbol() {
 	}
 
-	public void setValue(String newValue) {
-		value = newValue;
+	public static boolean isVariable(String value) {
+		return value.length() == 1 && isUpperCase(value.charAt(0));
 	}
 
-	public void unbind() {
-		isBound = false;
-		bindValue = null;
+	/**
+	 * @return the code of variable "name" in a term.
+	 */
+	public static int variable(String name) {
+		return -(name.charAt(0) - 'A') - 1;
 	}
 
-	public void applyBindings(Bindings bindings) {
-		if (isVariable && bindings.contains(value)) {
-			bindValue = bindings.get(value);
-			isBound = true;
-		}
+	public static boolean isVariable(int code) {
+		return code < 0;
 	}
 
-	public boolean equals(Symbol another) {
-		return Objects.equals(getValue(), another.getValue());
+	/**
+	 * @return the variable (0 to VARIABLES - 1) of a code in a term.
+	 */
+	public static int variableIndex(int code) {
+		return -code - 1;
 	}
 
 }
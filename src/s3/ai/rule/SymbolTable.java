@@ -0,0 +1,80 @@
+package s3.ai.rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import s3.util.IntHashMap;
+
+/**
+ * The constants (functors, unit types, ids, numbers...) of the terms of an
+ * AI, interned to ints (their ids, >= 0), so that terms are arrays of ints
+ * and comparing two constants is comparing two ints. Constants that are
+ * integers are typed as numbers when they are interned, so their value is
+ * read from the table instead of being parsed every time it is compared.
+ *
+ * Each RuleBasedAI has its own table (held by its KnowledgeBase), used only
+ * from the thread playing its game, so games can be played in parallel and
+ * what a game interned (amounts of gold, unit ids...) goes away with it.
+ * Variables are not interned: see Symbol.
+ */
+public final class SymbolTable {
+	private final HashMap<String, Integer> ids = new HashMap<>();
+	private final IntHashMap<Integer> numberIds = new IntHashMap<>();
+	private final ArrayList<String> names = new ArrayList<>();
+	private boolean[] numeric = new boolean[64];
+	private int[] values = new int[64];
+
+	/**
+	 * @return the id of a constant, interning it if it is new.
+	 */
+	public int intern(String name) {
+		Integer id = ids.get(name);
+		if (id != null) {
+			return id;
+		}
+		int i = names.size();
+		names.add(name);
+		ids.put(name, i);
+		if (i == values.length) {
+			numeric = Arrays.copyOf(numeric, i * 2);
+			values = Arrays.copyOf(values, i * 2);
+		}
+		numeric[i] = false;
+		char c = (name.isEmpty() ? ' ' : name.charAt(0));
+		if (Character.isDigit(c) || c == '-' || c == '+') {
+			try {
+				values[i] = Integer.parseInt(name);
+				numeric[i] = true;
+			} catch (NumberFormatException e) {
+				// not a number after all
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * @return the id of the number "value" (the same as intern(String.valueOf(value))).
+	 */
+	public int number(int value) {
+		Integer id = numberIds.get(value);
+		if (id == null) {
+			id = intern(String.valueOf(value));
+			numberIds.put(value, id);
+		}
+		return id;
+	}
+
+	public String name(int id) {
+		return names.get(id);
+	}
+
+	public boolean isNumber(int id) {
+		return id >= 0 && numeric[id];
+	}
+
+	public int intValue(int id) {
+		return values[id];
+	}
+
+}
@@ -1,79 +1,109 @@
 package s3.ai.rule;
 
-import java.util.ArrayList;
-import java.util.Objects;
-
+/**
+ * A fact, a pattern of a rule or an effect: a functor and its arguments, all
+ * coded as ints (see SymbolTable and Symbol). The arguments of facts are
+ * constants; those of patterns and effects can also be variables, whose
+ * values are kept apart, in a Bindings, so the terms of the rules are never
+ * changed nor copied while they are matched.
+ */
 class Term {
-	public boolean isAction;
-	public boolean isNegation;
-	public boolean isMathExpression;
-	public boolean canUnite;
+	public final boolean isAction;
+	public final boolean isNegation;
+	public final boolean isMathExpression;
+	public final boolean canUnite;
 
-	public String functor;
-	private ArrayList<Symbol> arguments;
+	/** where the ids of the functor and constants are interned. */
+	public final SymbolTable symbols;
 
-	public Term() {
-		this.arguments = new ArrayList<>();
-	}
+	/** the id of the functor (without the "~" of negations). */
+	public final int functor;
+	private final int[] arguments;
 
-	public Term(String functor, String... arguments) {
+	public Term(SymbolTable symbols, String functor, String... arguments) {
 		isMathExpression = functor.contains("<") || functor.contains(">") || functor.contains("=");
 		isNegation = !isMathExpression && '~' == functor.charAt(0);
-		isAction = !isMathExpression && !isNegation && "do".equals(functor.substring(0, 2));
+		isAction = !isMathExpression && !isNegation && functor.startsWith("do");
 		canUnite = !isAction && !isNegation && !isMathExpression;
 
-		this.functor = functor;
-		this.arguments = new ArrayList<>();
-		for (String arg : arguments) {
-			this.arguments.add(new Symbol(arg));
+		this.symbols = symbols;
+		this.functor = symbols.intern(isNegation ? functor.substring(1) : functor);
+		this.arguments = new int[arguments.length];
+		for (int i = 0; i < arguments.length; i++) {
+			String arg = arguments[i];
+			this.arguments[i] = (Symbol.isVariable(arg) ? Symbol.variable(arg) : symbols.intern(arg));
 		}
 	}
 
-	@Override
-	@SuppressWarnings("MethodDoesntCallSuperMethod")
-	public Term clone() { // only expected to be called by term.reverse() and term.applyBindings()
-		Term clonedTerm = new Term();
-		clonedTerm.isMathExpression = isMathExpression;
-		clonedTerm.isNegation = isNegation;
-		clonedTerm.isAction = isAction;
-		clonedTerm.canUnite = canUnite;
-		clonedTerm.functor = functor;
-		clonedTerm.arguments = new ArrayList<>();
-		for (Symbol arg : this.arguments) {
-			clonedTerm.arguments.add(arg.clone());
-		}
-		return clonedTerm;
+	/**
+	 * a fact with the given functor and constants.
+	 */
+	public Term(SymbolTable symbols, int functor, int... arguments) {
+		isMathExpression = false;
+		isNegation = false;
+		isAction = false;
+		canUnite = true;
+		this.symbols = symbols;
+		this.functor = functor;
+		this.arguments = arguments;
+	}
+
+	private Term(Term t, int[] arguments) {
+		isMathExpression = t.isMathExpression;
+		isNegation = t.isNegation;
+		isAction = t.isAction;
+		canUnite = t.canUnite;
+		symbols = t.symbols;
+		functor = t.functor;
+		this.arguments = arguments;
 	}
 
-	public Term reverse() {
-		Term reversed = this.clone();
-		reversed.isNegation = !isNegation;
-		reversed.functor = isNegation ? functor.substring(1) : "~" + functor;
-		return reversed;
+	/**
+	 * @return the functor, without the "~" of negations.
+	 */
+	public String getName() {
+		return symbols.name(functor);
 	}
 
 	public int argSize() {
-		return arguments.size();
+		return arguments.length;
 	}
 
-	public Symbol getArg(int index) {
-		return arguments.get(index);
+	/**
+	 * @return the id of the constant at the given position, or the code of
+	 *         the variable there.
+	 */
+	public int getArg(int index) {
+		return arguments[index];
 	}
 
+	/**
+	 * @return this term with the values of its bound variables. The variables
+	 *         that are not bound become constants named after them.
+	 */
 	public Term applyBindings(Bindings bindings) {
-		Term clonedTerm = this.clone();
-		for (Symbol arg : clonedTerm.arguments) {
-			if (arg.isVariable() && !arg.isBound()) {
-				arg.applyBindings(bindings);
-			}
+		int[] values = new int[arguments.length];
+		for (int i = 0; i < arguments.length; i++) {
+			int v = bindings.valueOf(arguments[i]);
+			values[i] = (v != Bindings.UNBOUND ? v
+					: symbols.intern(String.valueOf((char) ('A' + Symbol.variableIndex(arguments[i])))));
 		}
-		return clonedTerm;
+		return new Term(this, values);
 	}
 
-	public boolean mathExpressionHolds() {
-		int leftOperand = Integer.parseInt(arguments.get(0).getValue());
-		int rightOperand = Integer.parseInt(arguments.get(1).getValue());
-		return switch (functor) {
+	/**
+	 * @return whether the comparison holds for the values of its arguments
+	 *         (false if any of them is not a bound number).
+	 */
+	public boolean mathExpressionHolds(Bindings bindings) {
+		int left = bindings.valueOf(arguments[0]);
+		int right = bindings.valueOf(arguments[1]);
+		if (!symbols.isNumber(left) || !symbols.isNumber(right)) {
+			return false;
+		}
+		int leftOperand = symbols.intValue(left);
+		int rightOperand = symbols.intValue(right);
+		return switch (getName()) {
 		case ">" -> leftOperand > rightOperand;
 		case "<" -> leftOperand < rightOperand;
 		case "=" -> leftOperand == rightOperand;
@@ -81,28 +111,39 @@ class Term {
 		};
 	}
 
-	public void reset() {
-		for (Symbol arg : arguments) {
-			if (arg.isVariable()) {
-				arg.unbind();
+	/**
+	 * @return whether fact t matches this term, with the variables of this
+	 *         term that are not bound matching anything.
+	 */
+	public boolean matches(Term t, Bindings bindings) {
+		for (int i = 0; i < arguments.length; i++) {
+			int v = bindings.valueOf(arguments[i]);
+			if (v != Bindings.UNBOUND && v != t.arguments[i]) {
+				return false;
 			}
 		}
+		return true;
 	}
 
 	public boolean equals(Term another) {
-		if (!Objects.equals(this.functor, another.functor)) {
+		if (this.functor != another.functor || this.isNegation != another.isNegation
+				|| this.arguments.length != another.arguments.length) {
 			return false;
-		} else {
-			if (this.argSize() == another.argSize()) {
-				for (int i = 0; i < this.argSize(); i++) {
-					if (!this.getArg(i).equals(another.getArg(i))) {
-						return false;
-					}
-				}
-				return true;
-			} else {
+		}
+		for (int i = 0; i < arguments.length; i++) {
+			if (this.arguments[i] != another.arguments[i]) {
 				return false;
 			}
 		}
+		return true;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder(isNegation ? "~" : "").append(getName()).append('(');
+		for (int i = 0; i < arguments.length; i++) {
+			sb.append(i > 0 ? "," : "").append(arguments[i] >= 0 ? symbols.name(arguments[i])
+					: String.valueOf((char) ('A' + Symbol.variableIndex(arguments[i]))));
+		}
+		return sb.append(')').toString();
 	}
 }
@@ -10,6 +10,7 @@ import java.util.List;
 import gatech.mmpm.learningengine.MEExecutorFactory;
 import gatech.mmpm.tracer.ITracer;
 import jargs.gnu.CmdLineParser;
+import s3.ai.path.AsyncPlanner;
 
 /**
  *
@@ -32,12 +33,15 @@ public class Main {
 	public static void printUsage() {
 		System.out.println("S3: play S3 according to the config file.");
 		System.out.println();
-		System.out.println("Usage: S3 -m map -i interval [-t method] [-u user] [-p playerType|idname|AIType|ME]...");
+		System.out.println("Usage: S3 -m map -i interval [-t method] [-u user] [-g [-s]] [-p playerType|idname|AIType|ME]...");
 		System.out.println();
 		System.out.println("\t-m|--map: map file rute name.");
 		System.out.println("\t-i|--interval: int, interval trace.");
 		System.out.println(gatech.mmpm.tracer.TracerFactory.getUserFriendlyHelp());
 		System.out.println("\t-u|--user: player name who generates the trace.");
+		System.out.println("\t-g|--headless: play without a window, as fast as possible (AI players only).");
+		System.out.println("\t-s|--stats: print the path cache statistics at the end of headless games.");
+		System.out.println("\t-w|--planner-threads: int, number of threads planning paths in the background (default 0).");
 		System.out.println("\t-p|--player: playerType|idname|AIType|ME. Note: | is a separator of player fields.");
 		System.out.println("\t             Where playerType: an int: ");
 		System.out.println("\t		             INPUT_NONE = -1");
@@ -59,6 +63,9 @@ public class Main {
 		System.out.println();
 		System.out.println("  S3 -t remote:S3portal.com:8888 config.xml [...]");
 		System.out.println("     Launches S3 and send the trace to the server S3portal.com");
+		System.out.println();
+		System.out.println("  S3 -g -m ./map1.xml -p 1|player1|ai-footmen-rush -p 1|player2|ai-knights-rush");
+		System.out.println("     Plays a game between two AIs without displaying it.");
 	}
 
 	public static void main(String args[]) {
@@ -72,6 +79,9 @@ public class Main {
 		CmdLineParser.Option traceOpt = parser.addStringOption('t', "trace");
 		CmdLineParser.Option userOpt = parser.addStringOption('u', "user");
 		CmdLineParser.Option helpOpt = parser.addBooleanOption('h', "help");
+		CmdLineParser.Option headlessOpt = parser.addBooleanOption('g', "headless");
+		CmdLineParser.Option statsOpt = parser.addBooleanOption('s', "stats");
+		CmdLineParser.Option plannerThreadsOpt = parser.addIntegerOption('w', "planner-threads");
 
 		CmdLineParser.Option playerOpt = parser.addStringOption('p', "player");
 		CmdLineParser.Option mapOpt = parser.addStringOption('m', "map");
@@ -91,6 +101,10 @@ public class Main {
 			System.exit(0);
 		}
 
+		boolean headless = (Boolean) parser.getOptionValue(headlessOpt, false);
+		boolean stats = (Boolean) parser.getOptionValue(statsOpt, false);
+		AsyncPlanner.THREADS = (Integer) parser.getOptionValue(plannerThreadsOpt, 0);
+
 		String saveTraceOpt;
 		String userName = null;
 		String map = null;
@@ -181,6 +195,9 @@ public class Main {
 		}
 
 		// At this point, the parameters have been validated. Start!
+		if (headless) {
+			return headlessMain(map, traceInterval, players, tracerUsed, userName, maxCycles, stats);
+		}
 		try {
 			S3App app = new S3App(map, traceInterval, players, tracerUsed);
 			if (userName != null) {
@@ -195,4 +212,33 @@ public class Main {
 
 		return null;
 	}
+
+	/**
+	 * plays a game without opening any window, printing the statistics of the
+	 * path cache at the end if "stats".
+	 * 
+	 * @return the winner, or null in case of a tie (or error)
+	 */
+	public static String headlessMain(String map, int traceInterval, List<PlayerInput> players,
+			ITracer tracerUsed, String userName, int maxCycles, boolean stats) {
+		System.setProperty("java.awt.headless", "true");
+		try {
+			S3Headless app = new S3Headless(map, traceInterval, players, tracerUsed);
+			if (userName != null) {
+				app.setUserName(userName);
+			}
+			app.gameLoop(maxCycles);
+			String winner = app.getWinner();
+			System.out.println("Game over at cycle " + app.getGame().getCycle() + ", winner: "
+					+ (winner == null ? "none" : winner));
+			if (stats) {
+				System.out.println(app.getGame().getPathfinding().getPathCache());
+			}
+			return winner;
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		}
+
+		return null;
+	}
 }
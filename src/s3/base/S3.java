@@ -11,19 +11,50 @@ import java.util.Set;
 import org.jdom.Document;
 import org.jdom.Element;
 
+import s3.ai.path.Pathfinding;
 import s3.entities.S3Entity;
 import s3.entities.S3PhysicalEntity;
+import s3.entities.WBuilding;
 import s3.entities.WGoldMine;
 import s3.entities.WOGrass;
 import s3.entities.WOMapEntity;
+import s3.entities.WOTree;
 import s3.entities.WPeasant;
 import s3.entities.WPlayer;
 import s3.entities.WTroop;
 import s3.entities.WUnit;
+import s3.util.IntHashMap;
 import s3.util.KeyInputHandler;
 import s3.util.Pair;
 
 public class S3 {
+	/**
+	 * gets notified of the changes to the game, so that what is computed from
+	 * it can be kept up to date instead of being computed again every cycle.
+	 */
+	public interface Listener {
+		/**
+		 * u entered "units" (it was created, or came out of a gold mine...).
+		 */
+		void unitAdded(WUnit u);
+
+		/**
+		 * u left "units" (it died, or went into a gold mine...).
+		 */
+		void unitRemoved(WUnit u);
+
+		/**
+		 * the status of u is not the one it had before the cycle. Actions
+		 * given to u (performAction()) in between cycles are not reported.
+		 */
+		void unitStatusChanged(WUnit u);
+
+		/**
+		 * the map entity at (x,y) changed (a tree was cut down...).
+		 */
+		void mapEntityChanged(int x, int y);
+	}
+
 	/** the current map. */
 	private S3Map m_map;
 
@@ -36,9 +67,35 @@ public class S3 {
 	/** units to add at the end of a cycle. */
 	private List<WUnit> newUnits;
 
+	/** cell-occupancy index of "units", for point and footprint queries. */
+	private S3UnitGrid unitGrid;
+
+	/** terrain and building obstacles, for footprint checks. */
+	private S3ClearanceMap clearanceMap;
+
+	/** free space for new buildings, for findFreeSpace(). */
+	private S3PlacementMap placementMap;
+
+	/** nearest tree and gold mine from every cell. */
+	private S3NearestField trees, goldMines;
+	private IntHashMap<WGoldMine> goldMineAt = new IntHashMap<WGoldMine>();
+	private int goldMinesIndexed = 0;
+
+	/** pathfinding structures derived from clearanceMap. */
+	private Pathfinding pathfinding;
+
+	/** "units" indexed by entityID. */
+	private IntHashMap<WUnit> unitsByID;
+
+	/** "units" grouped by owner and class. */
+	private S3UnitRegistry unitRegistry = new S3UnitRegistry();
+
 	/** entities that are not displayed, like the player. */
 	private List<WPlayer> players;
 
+	/** told about the changes to "units" and the map. */
+	private List<Listener> listeners = new LinkedList<Listener>();
+
 	/** what game cycle is currently being executed. */
 	private int m_cycle;
 
@@ -64,8 +121,6 @@ public class S3 {
 		// parse XML to create S2 Map object
 		List<Element> entities = root.getChildren();
 		
-		WPlayer.playerCount = 0;
-				
 		for (Element entity : entities) {
 			String entity_type = entity.getChild("type").getValue();
 			// MAP
@@ -82,6 +137,8 @@ public class S3 {
 					setFeaturesForEntity(entity, entityClass, gsEntity);
 
 					setEntityID(entity, entityClass, gsEntity);
+					// players get their color in the order they appear in the map:
+					gsEntity.setColor(WPlayer.colors[players.size()]);
 					players.add(gsEntity);
 				} else {
 					units.add(getEntityFromElement(entity));
@@ -89,6 +146,33 @@ public class S3 {
 			}
 		} // end for
 
+		unitGrid = new S3UnitGrid(m_map.getWidth(), m_map.getHeight());
+		clearanceMap = new S3ClearanceMap(m_map);
+		placementMap = new S3PlacementMap(m_map, unitGrid);
+		trees = new S3NearestField(m_map.getWidth(), m_map.getHeight());
+		List<Integer> treeCells = new LinkedList<Integer>();
+		for (int x = 0; x < m_map.getWidth(); x++) {
+			for (int y = 0; y < m_map.getHeight(); y++) {
+				if (m_map.layers[1].map[x][y] instanceof WOTree) {
+					treeCells.add(x + y * m_map.getWidth());
+				}
+			}
+		}
+		int[] cells = new int[treeCells.size()];
+		int[] ranks = new int[treeCells.size()];
+		int i = 0;
+		for (int c : treeCells) {
+			cells[i] = c;
+			ranks[i++] = treeRank(c % m_map.getWidth(), c / m_map.getWidth());
+		}
+		trees.reset(cells, ranks);
+		goldMines = new S3NearestField(m_map.getWidth(), m_map.getHeight());
+		pathfinding = new Pathfinding(clearanceMap);
+		unitsByID = new IntHashMap<WUnit>(units.size());
+		for (WUnit u : units) {
+			indexUnit(u);
+		}
+
 		m_cycle = 0;
 	}
 
@@ -202,6 +286,7 @@ public class S3 {
 			return false;
 		}
 		m_map.cycle(this);
+		pathfinding.cycle();
 
 		List<S3PhysicalEntity> toRemove = new LinkedList<S3PhysicalEntity>();
 		{
@@ -210,20 +295,37 @@ public class S3 {
 														// modification
 			l.addAll(units);
 			for (WUnit unit : l) {
+				S3Action status = unit.getStatus();
 				unit.cycle(m_cycle, this, failedActions);
+				updateUnitPosition(unit);
+				if (unit.getStatus() != status) {
+					for (Listener listener : listeners) {
+						listener.unitStatusChanged(unit);
+					}
+				}
 				if (unit.getCurrent_hitpoints() <= 0) {
 					toRemove.add(unit);
 					if (unit instanceof WPeasant) {
 						// clearn any construction it might have been doing:
 						((WPeasant)unit).clearConstruction(this);
 					}
+					if (unit instanceof WTroop) {
+						// and any path it might have been planning:
+						((WTroop) unit).stopPlanning(this);
+					}
 				}
 			}
 
 		}
 		units.removeAll(toRemove);
+		for (S3PhysicalEntity e : toRemove) {
+			unindexUnit((WUnit) e);
+		}
 
 		units.addAll(newUnits);
+		for (WUnit unit : newUnits) {
+			indexUnit(unit);
+		}
 		newUnits.removeAll(newUnits);
 		
 		{
@@ -295,8 +397,13 @@ public class S3 {
 	}
 
 	public WUnit entityVisuallyAt(int map_x, int map_y) {
-		// get the unit at the location
-		for (WUnit e : units) {
+		// get the unit at the location. Troops are drawn in between their
+		// previous and current cell, so look at the neighboring cells too:
+		int cell_x = map_x / S3PhysicalEntity.CELL_SIZE;
+		int cell_y = map_y / S3PhysicalEntity.CELL_SIZE;
+		List<WUnit> candidates = new LinkedList<WUnit>();
+		unitGrid.unitsIn(cell_x - 1, cell_y - 1, cell_x + 2, cell_y + 2, candidates);
+		for (WUnit e : candidates) {
 			if (e instanceof WTroop) {
 				int ax = ((WTroop)e).getActualX();
 				int ay = ((WTroop)e).getActualY();
@@ -320,14 +427,13 @@ public class S3 {
 	
 	public WUnit entityAt(int map_x, int map_y) {
 		// get the unit at the location
-		for (WUnit e : units) {
-			if (e.isEntityAt(map_x, map_y)) {
-				return e;
-			}
+		WUnit e = unitGrid.unitAt(map_x, map_y);
+		if (e != null) {
+			return e;
 		}
-		for (WUnit e : newUnits) {
-			if (e.isEntityAt(map_x, map_y)) {
-				return e;
+		for (WUnit u : newUnits) {
+			if (u.isEntityAt(map_x, map_y)) {
+				return u;
 			}
 		}
 		return null;
@@ -345,7 +451,9 @@ public class S3 {
 
 	/**
 	 * Method returns the nearest map entity of the particular type from the
-	 * given x and y co-ordinates
+	 * given x and y co-ordinates. Trees are looked up in a field kept up to
+	 * date as they are cut (at any distance); other types only within a range
+	 * of 7 cells.
 	 * 
 	 * @param x
 	 *            current x co-ordinate
@@ -360,9 +468,64 @@ public class S3 {
 
 	public S3PhysicalEntity locateNearestMapEntity(int x, int y,
 			Class<? extends WOMapEntity> mapEntityType, S3PhysicalEntity home) {
+		if (mapEntityType == WOTree.class) {
+			return nearestTree(x, y, home);
+		}
 		return m_map.layers[1].nearestMapEntity(x, y, mapEntityType, home);
 	}
 
+	/**
+	 * @return the tree closest to (x,y) (Manhattan distance, ties going to the
+	 *         one with the lowest x, and then the lowest y), or null if there
+	 *         are no trees left.
+	 */
+	public WOTree nearestTree(int x, int y) {
+		int c = trees.nearest(x, y);
+		return (c < 0 ? null : (WOTree) m_map.layers[1].map[c % m_map.getWidth()][c / m_map.getWidth()]);
+	}
+
+	/**
+	 * @return among the trees closest to (x,y), the one closest to home (if
+	 *         not null), or null if there are no trees left.
+	 */
+	private WOTree nearestTree(int x, int y, S3PhysicalEntity home) {
+		int d = trees.distance(x, y);
+		if (d <= 0 || home == null) {
+			return nearestTree(x, y);
+		}
+		// the trees at distance d are on the diamond of radius d around (x,y):
+		WOTree best = null;
+		int bestDistance = 0;
+		for (int dx = -d; dx <= d; dx++) {
+			int dy = d - Math.abs(dx);
+			for (int ty = y - dy; ty <= y + dy; ty += Math.max(1, 2 * dy)) {
+				int tx = x + dx;
+				if (tx >= 0 && ty >= 0 && tx < m_map.getWidth() && ty < m_map.getHeight() && trees.isSite(tx, ty)) {
+					int homeDistance = Math.abs(home.getX() - tx) + Math.abs(home.getY() - ty);
+					if (best == null || homeDistance < bestDistance) {
+						best = (WOTree) m_map.layers[1].map[tx][ty];
+						bestDistance = homeDistance;
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the gold mine whose top left corner is closest to (x,y)
+	 *         (Manhattan distance, ties going to the one that entered the game
+	 *         first), or null if there are none.
+	 */
+	public WGoldMine nearestGoldMine(int x, int y) {
+		int c = goldMines.nearest(x, y);
+		return (c < 0 ? null : goldMineAt.get(c));
+	}
+
+	private int treeRank(int x, int y) {
+		return x * m_map.getHeight() + y;
+	}
+
 	/**
 	 * removes a mapEntity at the given x,y coordinates.
 	 * 
@@ -374,14 +537,30 @@ public class S3 {
 		WOGrass clearedZone = new WOGrass();
 		clearedZone.setX(x);
 		clearedZone.setY(y);
+		clearanceMap.setTerrain(x, y, m_map.layers[1].map[x][y], clearedZone);
+		placementMap.setTerrain(x, y, clearedZone);
+		trees.remove(x, y);
 		m_map.layers[1].map[x][y] = clearedZone;
+		for (Listener l : listeners) {
+			l.mapEntityChanged(x, y);
+		}
 	}
 
 	public void setMapEntity(int x, int y, WOMapEntity me) {
 		// System.out.println("Clearing --> (" + x + "," + y + ")");
 		me.setX(x);
 		me.setY(y);
+		clearanceMap.setTerrain(x, y, m_map.layers[1].map[x][y], me);
+		placementMap.setTerrain(x, y, me);
+		if (me instanceof WOTree) {
+			trees.add(x, y, treeRank(x, y));
+		} else {
+			trees.remove(x, y);
+		}
 		m_map.layers[1].map[x][y] = me;
+		for (Listener l : listeners) {
+			l.mapEntityChanged(x, y);
+		}
 	}
 
 	/**
@@ -393,17 +572,8 @@ public class S3 {
 	 * @return
 	 */
 	public WUnit getUnitType(WPlayer player, Class<? extends WUnit> unitType) {
-		for (WUnit unit : units) {
-			if (unit.getClass().equals(unitType)) {
-				if (null == player && null == unit.owner) {
-					return unit;
-				}
-				if (player != null && unit.owner.equals(player.owner)) {
-					return unit;
-				}
-			}
-		}
-		return null;
+		List<WUnit> l = unitRegistry.get(null == player ? null : player.owner, unitType);
+		return l.isEmpty() ? null : l.get(0);
 	}
 
 	/**
@@ -415,19 +585,38 @@ public class S3 {
 	 * @return
 	 */
 	public List<WUnit> getUnitTypes(WPlayer player, Class<? extends WUnit> unitType) {
-		List<WUnit> list = new LinkedList<WUnit>();
-		for (WUnit unit : units) {
-			if (unit.getClass().equals(unitType)) {
-				if (null == player && null == unit.owner) {
-					list.add(unit);
-				} else if (null == player) {
-					continue;
-				} else if (unit.owner.equals(player.owner)) {
-					list.add(unit);
-				}
-			}
-		}
-		return list;
+		return new LinkedList<WUnit>(unitRegistry.get(null == player ? null : player.owner, unitType));
+	}
+
+	/**
+	 * Returns the number of instances of the given unit for the given player.
+	 * 
+	 * @param player
+	 * @param unitType
+	 * @return
+	 */
+	public int countUnitType(WPlayer player, Class<? extends WUnit> unitType) {
+		return unitRegistry.get(null == player ? null : player.owner, unitType).size();
+	}
+
+	/**
+	 * Returns the tech-tree bitset of the given player: bit techBit(type) is set
+	 * if the player has at least one building of that type.
+	 * 
+	 * @param player
+	 * @return
+	 */
+	public int getTechTree(WPlayer player) {
+		return unitRegistry.getTechTree(null == player ? null : player.owner);
+	}
+
+	/**
+	 * @param unitType
+	 * @return the bit of the given building type in the tech-tree bitset, or 0 if
+	 *         the type does not unlock anything.
+	 */
+	public static int techBit(Class<? extends WUnit> unitType) {
+		return S3UnitRegistry.techBit(unitType);
 	}
 
 	/**
@@ -438,12 +627,7 @@ public class S3 {
 	 * @return the corresponding unit.
 	 */
 	public WUnit getUnit(int id) {
-		for (WUnit entity : units) {
-			if (entity.entityID == id) {
-				return entity;
-			}
-		}
-		return null;
+		return unitsByID.get(id);
 	}
 
 	/**
@@ -476,17 +660,47 @@ public class S3 {
 	 * @return true if a collision occurs
 	 */
 	public S3Entity anyLevelCollision(S3PhysicalEntity i_pe) {
-		for (WUnit e : units) {
-			if (i_pe.collision(e))
-				if (i_pe.entityID != e.entityID) {
-					// System.out.println("COLLISION with " + e);
-					return e;
-				}
+		WUnit e = unitGrid.collision(i_pe);
+		if (e != null) {
+			// System.out.println("COLLISION with " + e);
+			return e;
 		}
 		// return false;
 		return m_map.anyLevelCollision(i_pe);
 	}
 
+	/**
+	 * checks if the entity could stand at (x,y) without colliding with anything
+	 * (other than itself). Same as placing the entity at (x,y) and checking
+	 * that anyLevelCollision returns null, but without moving the entity.
+	 */
+	public boolean isPassable(S3PhysicalEntity i_pe, int x, int y) {
+		if (i_pe instanceof WBuilding) {
+			// its own footprint is in the clearance map
+			if (!clearanceMap.isFree(x, y, i_pe.getWidth(), i_pe.getLength(), (WBuilding) i_pe)) {
+				return false;
+			}
+		} else if (!clearanceMap.isFree(x, y, i_pe.getWidth(), i_pe.getLength())) {
+			return false;
+		}
+		return unitGrid.collision(x, y, i_pe.getWidth(), i_pe.getLength(), i_pe.entityID) == null;
+	}
+
+	/**
+	 * @return the static obstacles (terrain and buildings) of the game.
+	 */
+	public S3ClearanceMap getClearanceMap() {
+		return clearanceMap;
+	}
+
+	/**
+	 * @return the pathfinding structures (abstract graphs, regions...) of the
+	 *         game.
+	 */
+	public Pathfinding getPathfinding() {
+		return pathfinding;
+	}
+
 	public S3Map getMap() {
 		return m_map;
 	}
@@ -511,11 +725,9 @@ public class S3 {
 		if (x < 0 || y < 0 || x >= m_map.getWidth() || y >= m_map.getHeight())
 			return null;
 
-		for (WUnit u : units) {
-			if (u.getX() <= x && u.getX() + u.getWidth() > x && u.getY() <= y
-					&& u.getY() + u.getLength() > y) {
-				return u;
-			}
+		WUnit u = unitGrid.unitAt(x, y);
+		if (u != null) {
+			return u;
 		}
 
 		return m_map.getEntity(x, y);
@@ -540,45 +752,35 @@ public class S3 {
 	 *         null if one doesn't exist.
 	 */
 	public Pair<Integer, Integer> findFreeSpace(int startx, int starty, int size) {
-		int x = startx;
-		int y = starty;
-
-		for (int i = 0; i < getMap().width / 2 && i < getMap().height / 2; i++) {
-			for (int j = -1; j <= i; j++) {
-				if (isSpaceFree(size, x + j, y + i)) {
-					return new Pair<Integer, Integer>(x + j, y + i);
-				}
-				if (isSpaceFree(size, x + i, y + j)) {
-					return new Pair<Integer, Integer>(x + i, y + j);
-				}
-				if (isSpaceFree(size, x + j, y - i)) {
-					return new Pair<Integer, Integer>(x + j, y - i);
-				}
-				if (isSpaceFree(size, x - i, y + j)) {
-					return new Pair<Integer, Integer>(x - i, y + j);
-				}
-			}
-		}
+		List<Pair<Integer, Integer>> sites = placementMap.findFree(startx, starty, size, 1, this);
+		return (sites.isEmpty() ? null : sites.get(0));
+	}
 
-		return null;
+	/**
+	 * finds the k squares of free space that are size x size large closest to
+	 * startx and starty, for AIs that want to pick among a few candidate sites.
+	 * 
+	 * @return the top left locations of the free squares, closest first (the
+	 *         first one is the one findFreeSpace() returns). Less than k if
+	 *         there are not that many around.
+	 */
+	public List<Pair<Integer, Integer>> findFreeSpaces(int startx, int starty, int size, int k) {
+		return placementMap.findFree(startx, starty, size, k, this);
 	}
 
 	/**
-	 * @param size
-	 * @param x
-	 * @param y
+	 * @return true if the size x size square with its top left corner at (x,y)
+	 *         is all grass, with no unit on it.
 	 */
 	public boolean isSpaceFree(int size, int x, int y) {
-		for (int i = 0; i < size; i++) {
-			for (int j = 0; j < size; j++) {
-				int xLoc = x + i;
-				int yLoc = y + j;
-				if (xLoc <= 0 || yLoc <= 0 || xLoc >= getMap().width || yLoc >= getMap().height) {
-					return false;
-				}
-				if (!(mapEntityAt(xLoc, yLoc) instanceof WOGrass) || null != entityAt(xLoc, yLoc)) {
-					return false;
-				}
+		if (!placementMap.isFree(x, y, size)) {
+			return false;
+		}
+		// units created during this cycle are not in the unit grid yet:
+		for (WUnit u : newUnits) {
+			if (u.getX() < x + size && x < u.getX() + u.getWidth() && u.getY() < y + size
+					&& y < u.getY() + u.getLength()) {
+				return false;
 			}
 		}
 		return true;
@@ -592,8 +794,87 @@ public class S3 {
 		this.message = message;
 	}
 
+	/**
+	 * lets S3 know that the unit may have changed its position, so the spatial
+	 * index stays accurate in the middle of a cycle.
+	 * 
+	 * @param u
+	 */
+	public void updateUnitPosition(WUnit u) {
+		unitGrid.update(u);
+		if (u instanceof WBuilding) {
+			clearanceMap.updateBuilding(u);
+		}
+	}
+
+	public void addListener(Listener l) {
+		listeners.add(l);
+	}
+
+	public void removeListener(Listener l) {
+		listeners.remove(l);
+	}
+
 	public void removeUnit(WUnit u) {
-		units.remove(u);
+		if (units.remove(u)) {
+			unindexUnit(u);
+		}
+	}
+
+	/**
+	 * registers a unit that just entered "units" in the lookup indexes.
+	 */
+	private void indexUnit(WUnit u) {
+		unitGrid.add(u);
+		if (u instanceof WBuilding) {
+			clearanceMap.addBuilding(u);
+		}
+		if (u instanceof WGoldMine) {
+			int c = u.getX() + u.getY() * m_map.getWidth();
+			if (!goldMineAt.containsKey(c)) {
+				goldMineAt.put(c, (WGoldMine) u);
+				goldMines.add(u.getX(), u.getY(), goldMinesIndexed++);
+			}
+		}
+		unitRegistry.add(u);
+		// if two units share an ID, the first one keeps it (as the old linear
+		// search did)
+		if (!unitsByID.containsKey(u.entityID)) {
+			unitsByID.put(u.entityID, u);
+		}
+		for (Listener l : listeners) {
+			l.unitAdded(u);
+		}
+	}
+
+	/**
+	 * removes a unit that just left "units" from the lookup indexes.
+	 */
+	private void unindexUnit(WUnit u) {
+		unitGrid.remove(u);
+		if (u instanceof WBuilding) {
+			clearanceMap.removeBuilding(u);
+		}
+		if (u instanceof WGoldMine) {
+			int c = u.getX() + u.getY() * m_map.getWidth();
+			if (goldMineAt.get(c) == u) {
+				goldMineAt.remove(c);
+				goldMines.remove(u.getX(), u.getY());
+			}
+		}
+		unitRegistry.remove(u);
+		if (unitsByID.get(u.entityID) == u) {
+			unitsByID.remove(u.entityID);
+			for (WUnit other : units) {
+				if (other.entityID == u.entityID) {
+					unitsByID.put(other.entityID, other);
+					break;
+				}
+			}
+		}
+		for (Listener l : listeners) {
+			l.unitRemoved(u);
+		}
 	}
 
 	//hardcoded the letter 'm' here for this. I guess we could declare it as a constant maybe
@@ -5,22 +5,12 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferStrategy;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.*;
 import java.util.List;
 
 import javax.swing.*;
 
-import org.jdom.Document;
-import org.jdom.input.SAXBuilder;
-
-import gatech.mmpm.Action;
-import gatech.mmpm.Entity;
-import gatech.mmpm.GameState;
 import s3.ai.AI;
-import s3.ai.AIEmpty;
-import s3.ai.builtin.*;
-import s3.ai.rule.RuleBasedAI;
 import s3.entities.*;
 import s3.util.KeyInputHandler;
 import s3.util.MouseHandler;
@@ -30,7 +20,7 @@ public class S3App extends Canvas {
 
 	public static final int SCREEN_X = 1024;
 	public static final int SCREEN_Y = 720;
-	public static final int m_trace_interval = 500;
+	public static final int m_trace_interval = S3Trace.TRACE_INTERVAL;
 	public static final int STATE_INIT = 0;
 	public static final int STATE_GAME = 1;
 	public static final int STATE_QUITTING = 2;
@@ -63,7 +53,7 @@ public class S3App extends Canvas {
 	List<AI> m_ai_l = new LinkedList<AI>();
 	gatech.mmpm.IDomain idomain = null;
 	gatech.mmpm.tracer.ITracer tracer = null;
-	HashMap<S3Action, Action> m_actionMaps = new HashMap<S3Action, Action>();
+	S3Trace trace = null;
 	private BufferStrategy strategy;
 	private boolean gameRunning = true;
 	private int m_state = STATE_INIT;
@@ -143,22 +133,8 @@ public class S3App extends Canvas {
 
 		boolean need_to_redraw = true;
 
-		if (tracer != null) {
-			tracer.beginTrace();
-			java.util.Properties prop = new java.util.Properties();
-			prop.setProperty("domain", "s3");
-			prop.setProperty("map", mapName);
-			{
-				String players_string = "";
-				for (PlayerInput p : m_pi_l) {
-					players_string += "<player>" + p.m_playerID + "</player>";
-				}
-				prop.setProperty("players", players_string);
-			}
-			if (_userName != null) {
-				prop.setProperty("user", _userName);
-			}
-			tracer.putMetadata(prop);
+		if (trace != null) {
+			trace.begin(mapName, m_pi_l, _userName);
 		}
 
 		while (gameRunning) {
@@ -203,12 +179,8 @@ public class S3App extends Canvas {
 			}
 		}
 
-		if (tracer != null) {
-			tracer.endTrace(idomain, getWinner());
-			if (!tracer.success()) {
-				System.err.println("There were some errors saving the trace:");
-				System.err.println(tracer.getErrorMessage());
-			}
+		if (trace != null) {
+			trace.end(getWinner());
 		}
 
 		container.getContentPane().remove(this);
@@ -224,24 +196,12 @@ public class S3App extends Canvas {
 			gatech.mmpm.tracer.ITracer a_tracer) throws Exception, IOException {
 
 		tracer = a_tracer;
+		if (tracer != null) {
+			trace = new S3Trace(tracer, idomain);
+		}
 		mapName = map;
 		// create the Game object if the file exists
-		Document game_doc = null;
-		SAXBuilder builder = new SAXBuilder();
-		try {
-			// When BattleCity is a JAR
-			InputStream f = this.getClass().getResourceAsStream("/" + mapName);
-			game_doc = builder.build(f);
-		} catch (Exception e) {
-			// When it's not:
-			game_doc = builder.build(mapName);
-		}
-
-		if (game_doc != null) {
-			m_game = new S3(game_doc);
-		} else {
-			System.err.println("No MAP file found!");
-		}
+		m_game = S3Headless.loadGame(mapName);
 
 		m_pi_l = players;
 		for (PlayerInput pi : players) {
@@ -250,40 +210,7 @@ public class S3App extends Canvas {
 				mouse_player = pi.m_playerID;
 			}
 			if (pi.m_inputType == PlayerInput.INPUT_AI) {
-				AI ai;
-
-				if (pi.AIType.equals("ai-empty")) {
-					ai = new AIEmpty(pi.m_playerID);
-					ai.gameStarts();
-					pi.m_inputType = PlayerInput.INPUT_AI;
-				} else if (pi.AIType.equals("ai-rush")) {
-					ai = new RushAI(pi.m_playerID);
-					ai.gameStarts();
-				} else if (pi.AIType.equals("ai-rush2")) {
-					ai = new RushAI2(pi.m_playerID);
-					ai.gameStarts();
-				} else if (pi.AIType.equals("ai-footmen-rush")) {
-					ai = new FootmenRush(pi.m_playerID);
-					ai.gameStarts();
-				} else if (pi.AIType.equals("ai-archers-rush")) {
-					ai = new ArchersRush(pi.m_playerID);
-					ai.gameStarts();
-				} else if (pi.AIType.equals("ai-catapults-rush")) {
-					ai = new CatapultRush(pi.m_playerID);
-					ai.gameStarts();
-				} else if (pi.AIType.equals("ai-knights-rush")) {
-					ai = new KnightsRush(pi.m_playerID);
-					ai.gameStarts();
-				} else if (pi.AIType.equals("ai-defensive-knights-rush")) {
-					ai = new DefensiveKnightsRush(pi.m_playerID);
-					ai.gameStarts();
-				} else if (pi.AIType.equals("ai-rule-based")) {
-					ai = new RuleBasedAI(pi.m_playerID, m_game);
-					ai.gameStarts();
-				} else {
-					throw new Exception(pi.m_playerID + " AIType must be \"ai-empty\", \"ai-rush\" or \"ME\".");
-				}
-
+				AI ai = S3Headless.createAI(pi, m_game);
 				m_ai_l.add(ai);
 			}
 			m_game.getPlayer(pi.m_playerID).setInputType(pi.m_inputType);
@@ -411,10 +338,8 @@ public class S3App extends Canvas {
 
 		if (!m_game.cycle(failedActions)) {
 			// Save the last state:
-			if (tracer != null) {
-				tracer.beginGameCycle(m_game.getCycle());
-				tracer.putGameState(s3.mmpm.Game2D2Converter.toGameState(m_game, idomain));
-				tracer.endGameCycle();
+			if (trace != null) {
+				trace.gameOver(m_game);
 			}
 			return STATE_QUITTING;
 		}
@@ -422,23 +347,8 @@ public class S3App extends Canvas {
 		t2 = System.currentTimeMillis();
 
 		// Save trace entry:
-		if (tracer != null) {
-			if (m_game != null && (cycle % m_trace_interval) == 0 || !actions.isEmpty()) {
-				traceEntryStarted = true;
-				tracer.beginGameCycle(cycle);
-				GameState gs = s3.mmpm.Game2D2Converter.toGameState(m_game, idomain);
-				tracer.putGameState(gs);
-				for (S3Action a : actions) {
-					Entity target = gs.getEntity("" + a.m_targetUnit);
-					if (target != null) {
-						List<Action> d2a = s3.mmpm.Game2D2Converter.toD2Action(a, gs, target.getowner());
-						for (Action act : d2a) {
-							m_actionMaps.put(a, act);
-							tracer.putAction(act);
-						}
-					}
-				}
-			}
+		if (trace != null) {
+			traceEntryStarted = trace.cycle(cycle, m_game, actions);
 		}
 
 		t3 = System.currentTimeMillis();
@@ -448,23 +358,8 @@ public class S3App extends Canvas {
 
 		t4 = System.currentTimeMillis();
 
-		for (S3Action a : failedActions) {
-
-			if (tracer != null) {
-				if (!traceEntryStarted) {
-					traceEntryStarted = true;
-					tracer.beginGameCycle(cycle);
-					// tracer.putGameState(s2.d2.Game2D2Converter.toGameState(m_game,idomain));
-				}
-				gatech.mmpm.Action a2 = m_actionMaps.get(a);
-				if (a2 != null) {
-					tracer.putAbortedAction(a2);
-				}
-			}
-		}
-
-		if (traceEntryStarted) {
-			tracer.endGameCycle();
+		if (trace != null) {
+			trace.endCycle(cycle, failedActions, traceEntryStarted);
 		}
 
 		if (TIME_DEBUG) {
@@ -965,28 +860,7 @@ public class S3App extends Canvas {
 	}
 
 	public String getWinner() {
-		String owner = null;
-		for (S3Entity e : m_game.getUnits()) {
-			if (null == owner) {
-				owner = e.getOwner();
-			} else {
-				if (!owner.equals(e.getOwner())) {
-					// we have units from more than one player
-					System.out.println("Two Players remaining: '" + owner + "' and '" + e.getOwner() + "'");
-					return null;
-				}
-			}
-
-		}
-
-		// this is the only player with units; they must have won:
-		for (PlayerInput p : m_pi_l) {
-			if (p.m_playerID.equals(owner)) {
-				return p.m_playerName;
-			}
-		}
-
-		return owner;
+		return S3Headless.getWinner(m_game, m_pi_l);
 	}
 
 	public int get_x_offset() {
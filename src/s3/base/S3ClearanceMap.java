@@ -0,0 +1,247 @@
+package s3.base;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+
+import s3.entities.WOGrass;
+import s3.entities.WOMapEntity;
+import s3.entities.WUnit;
+
+/**
+ * Static obstacles of a game (terrain that is not grass, and buildings), kept
+ * as one blocker count per cell plus a clearance value per cell: the side of
+ * the largest obstacle-free square whose top-left corner is the cell (capped
+ * at MAX_CLEARANCE). A w x l footprint fits at (x,y) if the clearance there is
+ * at least max(w,l), so pathfinding can test footprints with a single array
+ * read instead of a collision scan.
+ *
+ * As in S3MapLayer.collidesWith, cells outside of the map never block, and
+ * neither do empty (null) map cells.
+ *
+ * The owner keeps it up to date by calling setTerrain() when a map cell
+ * changes, and addBuilding()/removeBuilding()/updateBuilding() as buildings
+ * come, go or move. Only the cells whose clearance can change are recomputed,
+ * and listeners are told which cells changed.
+ */
+public class S3ClearanceMap {
+	/**
+	 * gets notified when the obstacles of some cells change.
+	 */
+	public interface Listener {
+		/**
+		 * the cells [x0,x1) x [y0,y1) got or lost an obstacle.
+		 */
+		void obstaclesChanged(int x0, int y0, int x1, int y1);
+	}
+
+	/** the largest footprint in the game (townhalls and fortresses). */
+	public static final int MAX_CLEARANCE = 4;
+
+	private final int width, height;
+
+	/** number of obstacles on each cell (x + y * width). */
+	private final short[] blockers;
+
+	private final byte[] clearance;
+
+	/** the x, y, width and length each building was added with. */
+	private final IdentityHashMap<WUnit, int[]> buildings = new IdentityHashMap<WUnit, int[]>();
+
+	/** incremented every time a cell changes. */
+	private int version = 0;
+
+	private final List<Listener> listeners = new LinkedList<Listener>();
+
+	public S3ClearanceMap(S3Map map) {
+		width = map.getWidth();
+		height = map.getHeight();
+		blockers = new short[width * height];
+		clearance = new byte[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (isTerrainObstacle(map.layers[1].getMapEntityAtLocation(x, y))) {
+					blockers[x + y * width]++;
+				}
+			}
+		}
+		repair(0, 0, width, height);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public void addListener(Listener l) {
+		listeners.add(l);
+	}
+
+	public void removeListener(Listener l) {
+		listeners.remove(l);
+	}
+
+	/**
+	 * @return the number of changes done to the map so far. Anything computed
+	 *         from this map is still valid as long as the version is the same.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return true if no static obstacle overlaps the w x l footprint with its
+	 *         top-left corner at (x,y).
+	 */
+	public boolean isFree(int x, int y, int w, int l) {
+		if (x >= 0 && y >= 0 && x < width && y < height) {
+			int c = clearance[x + y * width];
+			if (c >= w && c >= l) {
+				return true;
+			}
+			if (c < w && c < l) {
+				return false;
+			}
+		}
+		// footprints that are not square or are partly outside of the map:
+		int x1 = Math.min(width, x + w);
+		int y1 = Math.min(height, y + l);
+		for (int j = Math.max(0, y); j < y1; j++) {
+			for (int i = Math.max(0, x); i < x1; i++) {
+				if (blockers[i + j * width] > 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * like isFree(x, y, w, l), but not counting the footprint of the given
+	 * building as an obstacle (for buildings checking where they could be).
+	 */
+	public boolean isFree(int x, int y, int w, int l, WUnit ignored) {
+		int[] fp = buildings.get(ignored);
+		if (fp == null) {
+			return isFree(x, y, w, l);
+		}
+		int x1 = Math.min(width, x + w);
+		int y1 = Math.min(height, y + l);
+		for (int j = Math.max(0, y); j < y1; j++) {
+			for (int i = Math.max(0, x); i < x1; i++) {
+				int n = blockers[i + j * width];
+				if (i >= fp[0] && i < fp[0] + fp[2] && j >= fp[1] && j < fp[1] + fp[3]) {
+					n--;
+				}
+				if (n > 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the clearance of a cell inside the map.
+	 */
+	public int getClearance(int x, int y) {
+		return clearance[x + y * width];
+	}
+
+	/**
+	 * to be called when the map entity at (x,y) has been replaced.
+	 */
+	public void setTerrain(int x, int y, WOMapEntity old, WOMapEntity me) {
+		boolean wasObstacle = isTerrainObstacle(old);
+		boolean isObstacle = isTerrainObstacle(me);
+		if (wasObstacle != isObstacle) {
+			blockers[x + y * width] += (isObstacle ? 1 : -1);
+			repair(x, y, x + 1, y + 1);
+		}
+	}
+
+	public void addBuilding(WUnit u) {
+		if (buildings.containsKey(u)) {
+			updateBuilding(u);
+			return;
+		}
+		int[] fp = new int[] { u.getX(), u.getY(), u.getWidth(), u.getLength() };
+		buildings.put(u, fp);
+		block(fp, 1);
+	}
+
+	public void removeBuilding(WUnit u) {
+		int[] fp = buildings.remove(u);
+		if (fp != null) {
+			block(fp, -1);
+		}
+	}
+
+	/**
+	 * moves the footprint of the building if it changed since it was added.
+	 */
+	public void updateBuilding(WUnit u) {
+		int[] fp = buildings.get(u);
+		if (fp == null) {
+			return;
+		}
+		if (fp[0] != u.getX() || fp[1] != u.getY() || fp[2] != u.getWidth() || fp[3] != u.getLength()) {
+			block(fp, -1);
+			fp[0] = u.getX();
+			fp[1] = u.getY();
+			fp[2] = u.getWidth();
+			fp[3] = u.getLength();
+			block(fp, 1);
+		}
+	}
+
+	private static boolean isTerrainObstacle(WOMapEntity me) {
+		return me != null && !(me instanceof WOGrass);
+	}
+
+	private void block(int[] fp, int delta) {
+		int x0 = Math.max(0, fp[0]);
+		int y0 = Math.max(0, fp[1]);
+		int x1 = Math.min(width, fp[0] + fp[2]);
+		int y1 = Math.min(height, fp[1] + fp[3]);
+		if (x0 >= x1 || y0 >= y1) {
+			return;
+		}
+		for (int y = y0; y < y1; y++) {
+			for (int x = x0; x < x1; x++) {
+				blockers[x + y * width] += delta;
+			}
+		}
+		repair(x0, y0, x1, y1);
+	}
+
+	/**
+	 * recomputes the clearance of every cell that can see the rectangle
+	 * [x0,x1) x [y0,y1) inside its square (from the bottom-right up), after
+	 * the blockers of that rectangle changed.
+	 */
+	private void repair(int x0, int y0, int x1, int y1) {
+		int rx0 = Math.max(0, x0 - MAX_CLEARANCE + 1);
+		int ry0 = Math.max(0, y0 - MAX_CLEARANCE + 1);
+		for (int y = y1 - 1; y >= ry0; y--) {
+			for (int x = x1 - 1; x >= rx0; x--) {
+				int i = x + y * width;
+				if (blockers[i] > 0) {
+					clearance[i] = 0;
+				} else {
+					int right = (x + 1 < width ? clearance[i + 1] : MAX_CLEARANCE);
+					int down = (y + 1 < height ? clearance[i + width] : MAX_CLEARANCE);
+					int diagonal = (x + 1 < width && y + 1 < height ? clearance[i + width + 1] : MAX_CLEARANCE);
+					clearance[i] = (byte) Math.min(MAX_CLEARANCE, 1 + Math.min(right, Math.min(down, diagonal)));
+				}
+			}
+		}
+		version++;
+		for (Listener l : listeners) {
+			l.obstaclesChanged(x0, y0, x1, y1);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package s3.base;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.jdom.Document;
+import org.jdom.input.SAXBuilder;
+
+import s3.ai.AI;
+import s3.ai.AIEmpty;
+import s3.ai.builtin.*;
+import s3.ai.rule.RuleBasedAI;
+import s3.entities.S3Entity;
+import s3.entities.WUnit;
+
+/**
+ * Plays an S3 game between AIs without displaying it: no window, canvas or
+ * sprites are created, and game cycles are run back to back instead of at
+ * the S3App.REDRAWING_PERIOD pace. Meant for experiments and batch machines
+ * without a display.
+ */
+public class S3Headless {
+	private S3 m_game;
+	private String mapName;
+	private String _userName = null;
+	private List<PlayerInput> m_pi_l;
+	private List<AI> m_ai_l = new LinkedList<AI>();
+	private S3Trace trace = null;
+
+	public S3Headless(String map, int traceInterval, List<PlayerInput> players, gatech.mmpm.tracer.ITracer a_tracer)
+			throws Exception {
+		mapName = map;
+		m_game = loadGame(map);
+		m_pi_l = players;
+		for (PlayerInput pi : players) {
+			if (pi.m_inputType == PlayerInput.INPUT_MOUSE) {
+				throw new Exception(pi.m_playerID + " is a mouse player, which cannot play a headless game.");
+			}
+			if (pi.m_inputType == PlayerInput.INPUT_AI) {
+				m_ai_l.add(createAI(pi, m_game));
+			}
+			m_game.getPlayer(pi.m_playerID).setInputType(pi.m_inputType);
+		}
+		if (a_tracer != null) {
+			trace = new S3Trace(a_tracer, null);
+		}
+	}
+
+	public void setUserName(String userName) {
+		_userName = userName;
+	}
+
+	public S3 getGame() {
+		return m_game;
+	}
+
+	/**
+	 * plays the game until it is over, or until maxCycles game cycles have been
+	 * played (if maxCycles >= 0).
+	 */
+	public void gameLoop(int maxCycles) {
+		if (trace != null) {
+			trace.begin(mapName, m_pi_l, _userName);
+		}
+
+		while (game_cycle()) {
+			if (maxCycles >= 0 && m_game.getCycle() > maxCycles) {
+				break;
+			}
+		}
+
+		if (trace != null) {
+			trace.end(getWinner());
+		}
+
+		for (AI ai : m_ai_l) {
+			ai.gameEnd();
+		}
+	}
+
+	/**
+	 * runs one game cycle, like S3App does in STATE_GAME.
+	 *
+	 * @return false if the game is over
+	 */
+	private boolean game_cycle() {
+		List<S3Action> failedActions = new LinkedList<S3Action>();
+		List<S3Action> actions = new LinkedList<S3Action>();
+		int cycle = m_game.getCycle();
+
+		for (PlayerInput pi : m_pi_l) {
+			if (pi.m_inputType == PlayerInput.INPUT_AI) {
+				for (AI ai : m_ai_l) {
+					if (ai.getPlayerId().equals(pi.m_playerID)) {
+						try {
+							ai.game_cycle(m_game, m_game.getPlayer(pi.m_playerID), actions);
+						} catch (ClassNotFoundException e) {
+							e.printStackTrace();
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+				}
+			}
+		}
+
+		if (!m_game.cycle(failedActions)) {
+			if (trace != null) {
+				trace.gameOver(m_game);
+			}
+			return false;
+		}
+
+		boolean traceEntryStarted = false;
+		if (trace != null) {
+			traceEntryStarted = trace.cycle(cycle, m_game, actions);
+		}
+
+		for (S3Action action : actions) {
+			WUnit u = m_game.getUnit(action.m_targetUnit);
+			if (u != null) {
+				u.performAction(action);
+			}
+		}
+
+		if (trace != null) {
+			trace.endCycle(cycle, failedActions, traceEntryStarted);
+		}
+		return true;
+	}
+
+	public String getWinner() {
+		return getWinner(m_game, m_pi_l);
+	}
+
+	/**
+	 * @return the name of the only player with units left, or null if more than
+	 *         one player has units.
+	 */
+	public static String getWinner(S3 game, List<PlayerInput> players) {
+		String owner = null;
+		for (S3Entity e : game.getUnits()) {
+			if (null == owner) {
+				owner = e.getOwner();
+			} else {
+				if (!owner.equals(e.getOwner())) {
+					// we have units from more than one player
+					System.out.println("Two Players remaining: '" + owner + "' and '" + e.getOwner() + "'");
+					return null;
+				}
+			}
+
+		}
+
+		// this is the only player with units; they must have won:
+		for (PlayerInput p : players) {
+			if (p.m_playerID.equals(owner)) {
+				return p.m_playerName;
+			}
+		}
+
+		return owner;
+	}
+
+	/**
+	 * loads the map, from the jar if S3 is packaged in one, or from the file
+	 * system otherwise.
+	 */
+	public static S3 loadGame(String mapName) throws Exception {
+		Document game_doc = null;
+		SAXBuilder builder = new SAXBuilder();
+		try {
+			// When BattleCity is a JAR
+			InputStream f = S3Headless.class.getResourceAsStream("/" + mapName);
+			game_doc = builder.build(f);
+		} catch (Exception e) {
+			// When it's not:
+			game_doc = builder.build(mapName);
+		}
+		return new S3(game_doc);
+	}
+
+	public static AI createAI(PlayerInput pi, S3 game) throws Exception {
+		AI ai;
+
+		if (pi.AIType.equals("ai-empty")) {
+			ai = new AIEmpty(pi.m_playerID);
+		} else if (pi.AIType.equals("ai-rush")) {
+			ai = new RushAI(pi.m_playerID);
+		} else if (pi.AIType.equals("ai-rush2")) {
+			ai = new RushAI2(pi.m_playerID);
+		} else if (pi.AIType.equals("ai-footmen-rush")) {
+			ai = new FootmenRush(pi.m_playerID);
+		} else if (pi.AIType.equals("ai-archers-rush")) {
+			ai = new ArchersRush(pi.m_playerID);
+		} else if (pi.AIType.equals("ai-catapults-rush")) {
+			ai = new CatapultRush(pi.m_playerID);
+		} else if (pi.AIType.equals("ai-knights-rush")) {
+			ai = new KnightsRush(pi.m_playerID);
+		} else if (pi.AIType.equals("ai-defensive-knights-rush")) {
+			ai = new DefensiveKnightsRush(pi.m_playerID);
+		} else if (pi.AIType.equals("ai-rule-based")) {
+			ai = new RuleBasedAI(pi.m_playerID, game);
+		} else {
+			throw new Exception(pi.m_playerID + " AIType must be \"ai-empty\", \"ai-rush\" or \"ME\".");
+		}
+		ai.gameStarts();
+		return ai;
+	}
+}
@@ -0,0 +1,358 @@
+package s3.base;
+
+import java.util.Arrays;
+
+/**
+ * The nearest site (tree, gold mine...) to every cell of the map, by
+ * Manhattan distance, with ties going to the site with the lowest rank. So
+ * "which is the closest tree" costs one array read wherever the question is
+ * asked from, however far the answer is.
+ *
+ * It is a multi-source breadth first search from all the sites, which gives
+ * the exact answer because the nearest site of a cell is also the nearest
+ * site of the neighbour that is one step closer to it (ranks included). For
+ * the same reason it can be kept up to date a site at a time: a new site
+ * only takes the cells it is nearer to, spreading from itself, and when a
+ * site goes away only the cells it was the nearest site of (a connected area
+ * around it) are computed again, spreading from the cells around that area.
+ */
+class S3NearestField {
+	private final int width, height;
+
+	/** steps to the nearest site (-1 if there are no sites). */
+	private final int[] distance;
+
+	/** cell of the nearest site, or -1. */
+	private final int[] nearest;
+
+	/** rank of the site on each cell, or -1 if there is none. */
+	private final int[] rank;
+
+	private final int[] queue;
+	private int sites = 0;
+
+	private long added = 0, removed = 0, cellsUpdated = 0;
+
+	public S3NearestField(int width, int height) {
+		this.width = width;
+		this.height = height;
+		distance = new int[width * height];
+		nearest = new int[width * height];
+		rank = new int[width * height];
+		queue = new int[width * height];
+		Arrays.fill(distance, -1);
+		Arrays.fill(nearest, -1);
+		Arrays.fill(rank, -1);
+	}
+
+	/**
+	 * @return the cell (x + y * width) of the site nearest to (x,y), or -1 if
+	 *         there are none (or (x,y) is out of the map).
+	 */
+	public int nearest(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			return -1;
+		}
+		return nearest[x + y * width];
+	}
+
+	/**
+	 * @return the Manhattan distance from (x,y) to the nearest site, or -1.
+	 */
+	public int distance(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			return -1;
+		}
+		return distance[x + y * width];
+	}
+
+	public boolean isSite(int x, int y) {
+		return rank[x + y * width] >= 0;
+	}
+
+	/**
+	 * forgets all the sites, and computes the field for the given ones at once
+	 * (a breadth first search from all of them, one distance at a time).
+	 *
+	 * @param siteCells the cells (x + y * width) of the sites
+	 * @param siteRanks their ranks
+	 */
+	public void reset(int[] siteCells, int[] siteRanks) {
+		Arrays.fill(distance, -1);
+		Arrays.fill(nearest, -1);
+		Arrays.fill(rank, -1);
+		sites = siteCells.length;
+		added += sites;
+		int tail = 0;
+		for (int i = 0; i < siteCells.length; i++) {
+			int c = siteCells[i];
+			rank[c] = siteRanks[i];
+			distance[c] = 0;
+			nearest[c] = c;
+			queue[tail++] = c;
+		}
+		int head = 0;
+		while (head < tail) {
+			// the cells at distance d are queue[head..levelEnd): their nearest
+			// sites are final, since all the cells at d - 1 are done
+			int levelEnd = tail;
+			for (; head < levelEnd; head++) {
+				int q = queue[head];
+				int d = distance[q] + 1;
+				int qx = q % width;
+				int qy = q / width;
+				if (qx > 0) {
+					tail = reach(q - 1, d, nearest[q], tail);
+				}
+				if (qx + 1 < width) {
+					tail = reach(q + 1, d, nearest[q], tail);
+				}
+				if (qy > 0) {
+					tail = reach(q - width, d, nearest[q], tail);
+				}
+				if (qy + 1 < height) {
+					tail = reach(q + width, d, nearest[q], tail);
+				}
+			}
+		}
+		cellsUpdated += tail;
+	}
+
+	/**
+	 * cell p, at distance d from site s, is queued the first time it is
+	 * reached, and takes s if it ranks better than the sites that reached it
+	 * at the same distance.
+	 */
+	private int reach(int p, int d, int s, int tail) {
+		if (distance[p] < 0) {
+			distance[p] = d;
+			nearest[p] = s;
+			queue[tail++] = p;
+		} else if (distance[p] == d && rank[s] < rank[nearest[p]]) {
+			nearest[p] = s;
+		}
+		return tail;
+	}
+
+	/**
+	 * makes (x,y) a site (or changes its rank).
+	 */
+	public void add(int x, int y, int siteRank) {
+		int c = x + y * width;
+		if (rank[c] >= 0) {
+			remove(x, y);
+		}
+		added++;
+		sites++;
+		rank[c] = siteRank;
+		distance[c] = 0;
+		nearest[c] = c;
+		int head = 0, tail = 0;
+		queue[tail++] = c;
+		while (head < tail) {
+			int q = queue[head++];
+			int d = distance[q] + 1;
+			int qx = q % width;
+			int qy = q / width;
+			if (qx > 0) {
+				tail = take(q - 1, d, c, tail);
+			}
+			if (qx + 1 < width) {
+				tail = take(q + 1, d, c, tail);
+			}
+			if (qy > 0) {
+				tail = take(q - width, d, c, tail);
+			}
+			if (qy + 1 < height) {
+				tail = take(q + width, d, c, tail);
+			}
+		}
+		cellsUpdated += tail;
+	}
+
+	/**
+	 * gives cell p to site s at distance d if s is nearer than its site.
+	 */
+	private int take(int p, int d, int s, int tail) {
+		if (nearest[p] < 0 || d < distance[p] || (d == distance[p] && rank[s] < rank[nearest[p]])) {
+			distance[p] = d;
+			nearest[p] = s;
+			queue[tail++] = p;
+		}
+		return tail;
+	}
+
+	/**
+	 * (x,y) is no longer a site.
+	 */
+	public void remove(int x, int y) {
+		int s = x + y * width;
+		if (rank[s] < 0) {
+			return;
+		}
+		removed++;
+		sites--;
+
+		// the cells s was the nearest site of:
+		int n = 0;
+		queue[n++] = s;
+		nearest[s] = -2;
+		for (int head = 0; head < n; head++) {
+			int q = queue[head];
+			int qx = q % width;
+			int qy = q / width;
+			if (qx > 0 && nearest[q - 1] == s) {
+				nearest[q - 1] = -2;
+				queue[n++] = q - 1;
+			}
+			if (qx + 1 < width && nearest[q + 1] == s) {
+				nearest[q + 1] = -2;
+				queue[n++] = q + 1;
+			}
+			if (qy > 0 && nearest[q - width] == s) {
+				nearest[q - width] = -2;
+				queue[n++] = q - width;
+			}
+			if (qy + 1 < height && nearest[q + width] == s) {
+				nearest[q + width] = -2;
+				queue[n++] = q + width;
+			}
+		}
+		rank[s] = -1;
+		cellsUpdated += n;
+		if (sites == 0) {
+			for (int i = 0; i < n; i++) {
+				nearest[queue[i]] = -1;
+				distance[queue[i]] = -1;
+			}
+			return;
+		}
+
+		// each of them gets the best site of its neighbours outside of the
+		// area, and then the area is filled in by increasing distance:
+		int[] area = Arrays.copyOf(queue, n);
+		for (int q : area) {
+			distance[q] = Integer.MAX_VALUE;
+			nearest[q] = -1;
+		}
+		Buckets buckets = new Buckets();
+		for (int q : area) {
+			int qx = q % width;
+			int qy = q / width;
+			if (qx > 0) {
+				offer(q, q - 1);
+			}
+			if (qx + 1 < width) {
+				offer(q, q + 1);
+			}
+			if (qy > 0) {
+				offer(q, q - width);
+			}
+			if (qy + 1 < height) {
+				offer(q, q + width);
+			}
+			if (nearest[q] >= 0) {
+				buckets.add(distance[q], q);
+			}
+		}
+		for (int d = 0; d < buckets.size(); d++) {
+			for (int i = 0; i < buckets.count(d); i++) {
+				int q = buckets.get(d, i);
+				if (distance[q] != d || rank[q] == -2) {
+					// already done (queued twice, or nearer through another cell)
+					continue;
+				}
+				int qx = q % width;
+				int qy = q / width;
+				if (qx > 0) {
+					improve(q - 1, d + 1, nearest[q], buckets);
+				}
+				if (qx + 1 < width) {
+					improve(q + 1, d + 1, nearest[q], buckets);
+				}
+				if (qy > 0) {
+					improve(q - width, d + 1, nearest[q], buckets);
+				}
+				if (qy + 1 < height) {
+					improve(q + width, d + 1, nearest[q], buckets);
+				}
+				if (rank[q] == -1) {
+					// marks it as done (cells of the area are not sites)
+					rank[q] = -2;
+				}
+			}
+		}
+		for (int q : area) {
+			if (rank[q] == -2) {
+				rank[q] = -1;
+			}
+		}
+	}
+
+	/**
+	 * cell q of the area being computed again looks at what its neighbour p
+	 * (outside of it, or already done) has.
+	 */
+	private void offer(int q, int p) {
+		if (nearest[p] >= 0) {
+			int d = distance[p] + 1;
+			if (d < distance[q] || (d == distance[q] && rank[nearest[p]] < rank[nearest[q]])) {
+				distance[q] = d;
+				nearest[q] = nearest[p];
+			}
+		}
+	}
+
+	/**
+	 * gives cell p to site s at distance d if s is nearer than its site. Only
+	 * cells of the area being computed again can change this way.
+	 */
+	private void improve(int p, int d, int s, Buckets buckets) {
+		if (nearest[p] < 0 || d < distance[p] || (d == distance[p] && rank[s] < rank[nearest[p]])) {
+			distance[p] = d;
+			nearest[p] = s;
+			buckets.add(d, p);
+		}
+	}
+
+	/**
+	 * cells by distance, for remove().
+	 */
+	private static class Buckets {
+		private int[][] cells = new int[16][];
+		private int[] counts = new int[16];
+		private int size = 0;
+
+		void add(int d, int cell) {
+			if (d >= cells.length) {
+				int n = Math.max(d + 1, cells.length * 2);
+				cells = Arrays.copyOf(cells, n);
+				counts = Arrays.copyOf(counts, n);
+			}
+			if (cells[d] == null) {
+				cells[d] = new int[8];
+			} else if (counts[d] == cells[d].length) {
+				cells[d] = Arrays.copyOf(cells[d], counts[d] * 2);
+			}
+			cells[d][counts[d]++] = cell;
+			size = Math.max(size, d + 1);
+		}
+
+		int size() {
+			return size;
+		}
+
+		int count(int d) {
+			return counts[d];
+		}
+
+		int get(int d, int i) {
+			return cells[d][i];
+		}
+	}
+
+	public String toString() {
+		return "S3NearestField: " + sites + " sites, " + added + " added, " + removed + " removed, " + cellsUpdated
+				+ " cells updated";
+	}
+}
@@ -0,0 +1,133 @@
+package s3.base;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import s3.entities.WOGrass;
+import s3.entities.WOMapEntity;
+import s3.util.Pair;
+
+/**
+ * Where new buildings can be placed: a cell is taken if it is not grass or if
+ * a unit stands on it (as in S3.isSpaceFree). The taken cells are kept as a
+ * summed-area table (sums[x + y * (width + 1)] is the number of taken cells
+ * in [0,x) x [0,y)), so whether a size x size square is empty is known from 4
+ * array reads whatever the size.
+ *
+ * Terrain changes are given by the owner through setTerrain(); units are read
+ * from the unit grid. The table is computed again when it is next needed after
+ * either changed (at most once per cycle while units move).
+ */
+class S3PlacementMap {
+	private final int width, height;
+	private final S3UnitGrid unitGrid;
+
+	/** 1 on the cells whose terrain is not grass. */
+	private final byte[] terrain;
+	private final int[] sums;
+
+	private int terrainVersion = 0, builtTerrainVersion = -1, builtUnitVersion = -1;
+
+	private long queries = 0, rebuilds = 0;
+
+	public S3PlacementMap(S3Map map, S3UnitGrid unitGrid) {
+		width = map.getWidth();
+		height = map.getHeight();
+		this.unitGrid = unitGrid;
+		terrain = new byte[width * height];
+		sums = new int[(width + 1) * (height + 1)];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				terrain[x + y * width] = (byte) (map.layers[1].getMapEntityAtLocation(x, y) instanceof WOGrass ? 0 : 1);
+			}
+		}
+	}
+
+	public void setTerrain(int x, int y, WOMapEntity me) {
+		byte t = (byte) (me instanceof WOGrass ? 0 : 1);
+		if (terrain[x + y * width] != t) {
+			terrain[x + y * width] = t;
+			terrainVersion++;
+		}
+	}
+
+	/**
+	 * @return true if the size x size square with its top-left corner at (x,y)
+	 *         is inside the map (not touching its top and left borders, as
+	 *         S3.isSpaceFree has always done) and none of its cells is taken.
+	 */
+	public boolean isFree(int x, int y, int size) {
+		queries++;
+		if (x <= 0 || y <= 0 || x + size > width || y + size > height) {
+			return false;
+		}
+		return taken(x, y, x + size, y + size) == 0;
+	}
+
+	/**
+	 * @return the top-left corners of the (at most) k free size x size squares
+	 *         closest to (startx,starty), closest first, in the order
+	 *         S3.findFreeSpace looks at them.
+	 */
+	public List<Pair<Integer, Integer>> findFree(int startx, int starty, int size, int k, S3 game) {
+		List<Pair<Integer, Integer>> sites = new LinkedList<Pair<Integer, Integer>>();
+		for (int i = 0; i < width / 2 && i < height / 2; i++) {
+			for (int j = -1; j <= i; j++) {
+				if (add(startx + j, starty + i, size, game, sites, k) || add(startx + i, starty + j, size, game, sites, k)
+						|| add(startx + j, starty - i, size, game, sites, k)
+						|| add(startx - i, starty + j, size, game, sites, k)) {
+					return sites;
+				}
+			}
+		}
+		return sites;
+	}
+
+	/**
+	 * adds (x,y) to the sites if a square fits there and it is not there yet.
+	 *
+	 * @return true once there are k sites.
+	 */
+	private boolean add(int x, int y, int size, S3 game, List<Pair<Integer, Integer>> sites, int k) {
+		if (game.isSpaceFree(size, x, y)) {
+			for (Pair<Integer, Integer> p : sites) {
+				if (p.m_a == x && p.m_b == y) {
+					return false;
+				}
+			}
+			sites.add(new Pair<Integer, Integer>(x, y));
+		}
+		return sites.size() >= k;
+	}
+
+	/**
+	 * @return the number of taken cells in [x0,x1) x [y0,y1).
+	 */
+	private int taken(int x0, int y0, int x1, int y1) {
+		if (builtTerrainVersion != terrainVersion || builtUnitVersion != unitGrid.getVersion()) {
+			build();
+		}
+		int w = width + 1;
+		return sums[x1 + y1 * w] - sums[x0 + y1 * w] - sums[x1 + y0 * w] + sums[x0 + y0 * w];
+	}
+
+	private void build() {
+		rebuilds++;
+		int w = width + 1;
+		for (int y = 0; y < height; y++) {
+			int row = 0;
+			for (int x = 0; x < width; x++) {
+				if (terrain[x + y * width] != 0 || unitGrid.isOccupied(x, y)) {
+					row++;
+				}
+				sums[(x + 1) + (y + 1) * w] = sums[(x + 1) + y * w] + row;
+			}
+		}
+		builtTerrainVersion = terrainVersion;
+		builtUnitVersion = unitGrid.getVersion();
+	}
+
+	public String toString() {
+		return "S3PlacementMap: " + queries + " queries, " + rebuilds + " table rebuilds";
+	}
+}
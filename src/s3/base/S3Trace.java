@@ -0,0 +1,109 @@
+package s3.base;
+
+import java.util.HashMap;
+import java.util.List;
+
+import gatech.mmpm.Action;
+import gatech.mmpm.Entity;
+import gatech.mmpm.GameState;
+import gatech.mmpm.tracer.ITracer;
+
+/**
+ * Writes the trace of a game being played, independently of whether it is
+ * being displayed (S3App) or not (S3Headless).
+ */
+class S3Trace {
+	/** a full game state is saved every TRACE_INTERVAL cycles. */
+	static final int TRACE_INTERVAL = 500;
+
+	private final ITracer tracer;
+	private final gatech.mmpm.IDomain idomain;
+	private final HashMap<S3Action, Action> m_actionMaps = new HashMap<S3Action, Action>();
+
+	S3Trace(ITracer tracer, gatech.mmpm.IDomain idomain) {
+		this.tracer = tracer;
+		// the game states of the trace cannot be built without a domain:
+		this.idomain = (idomain != null ? idomain : new s3.mmpm.S3Domain());
+	}
+
+	void begin(String mapName, List<PlayerInput> players, String userName) {
+		tracer.beginTrace();
+		java.util.Properties prop = new java.util.Properties();
+		prop.setProperty("domain", "s3");
+		prop.setProperty("map", mapName);
+		{
+			String players_string = "";
+			for (PlayerInput p : players) {
+				players_string += "<player>" + p.m_playerID + "</player>";
+			}
+			prop.setProperty("players", players_string);
+		}
+		if (userName != null) {
+			prop.setProperty("user", userName);
+		}
+		tracer.putMetadata(prop);
+	}
+
+	/**
+	 * saves the last state of a game that just finished.
+	 */
+	void gameOver(S3 game) {
+		tracer.beginGameCycle(game.getCycle());
+		tracer.putGameState(s3.mmpm.Game2D2Converter.toGameState(game, idomain));
+		tracer.endGameCycle();
+	}
+
+	/**
+	 * saves the trace entry of a cycle, if it needs one.
+	 *
+	 * @return true if a trace entry was started for this cycle
+	 */
+	boolean cycle(int cycle, S3 game, List<S3Action> actions) {
+		if (game != null && (cycle % TRACE_INTERVAL) == 0 || !actions.isEmpty()) {
+			tracer.beginGameCycle(cycle);
+			GameState gs = s3.mmpm.Game2D2Converter.toGameState(game, idomain);
+			tracer.putGameState(gs);
+			for (S3Action a : actions) {
+				Entity target = gs.getEntity("" + a.m_targetUnit);
+				if (target != null) {
+					List<Action> d2a = s3.mmpm.Game2D2Converter.toD2Action(a, gs, target.getowner());
+					for (Action act : d2a) {
+						m_actionMaps.put(a, act);
+						tracer.putAction(act);
+					}
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * saves the actions that failed during a cycle, and closes the trace entry
+	 * of the cycle if one was started.
+	 */
+	void endCycle(int cycle, List<S3Action> failedActions, boolean traceEntryStarted) {
+		for (S3Action a : failedActions) {
+			if (!traceEntryStarted) {
+				traceEntryStarted = true;
+				tracer.beginGameCycle(cycle);
+			}
+			gatech.mmpm.Action a2 = m_actionMaps.get(a);
+			if (a2 != null) {
+				tracer.putAbortedAction(a2);
+			}
+		}
+
+		if (traceEntryStarted) {
+			tracer.endGameCycle();
+		}
+	}
+
+	void end(String winner) {
+		tracer.endTrace(idomain, winner);
+		if (!tracer.success()) {
+			System.err.println("There were some errors saving the trace:");
+			System.err.println(tracer.getErrorMessage());
+		}
+	}
+}
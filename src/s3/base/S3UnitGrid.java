@@ -0,0 +1,224 @@
+package s3.base;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import s3.entities.S3PhysicalEntity;
+import s3.entities.WUnit;
+
+/**
+ * Cell-occupancy index over the units of a game. Every unit is registered in
+ * the cells covered by its footprint, so point and footprint queries only look
+ * at the units standing on the queried cells instead of scanning the whole unit
+ * list.
+ *
+ * Units move by writing their coordinates directly, so the owner of the grid
+ * has to call update() after a unit may have moved.
+ */
+class S3UnitGrid {
+	private final int width, height;
+
+	/** units standing on each cell (x + y * width), allocated on first use. */
+	private final List<WUnit>[] cells;
+
+	/** number of units registered in each cell. */
+	private final short[] occupants;
+
+	/** incremented every time a unit is registered or unregistered. */
+	private int version = 0;
+
+	/** the x, y, width and length each unit was last registered with. */
+	private final IdentityHashMap<WUnit, int[]> footprints = new IdentityHashMap<WUnit, int[]>();
+
+	public S3UnitGrid(int width, int height) {
+		this.width = width;
+		this.height = height;
+		cells = newCells(width * height);
+		occupants = new short[width * height];
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static List<WUnit>[] newCells(int n) {
+		return new List[n];
+	}
+
+	public void add(WUnit u) {
+		if (footprints.containsKey(u)) {
+			update(u);
+			return;
+		}
+		int[] fp = new int[] { u.getX(), u.getY(), u.getWidth(), u.getLength() };
+		footprints.put(u, fp);
+		register(u, fp);
+	}
+
+	public void remove(WUnit u) {
+		int[] fp = footprints.remove(u);
+		if (fp != null) {
+			unregister(u, fp);
+		}
+	}
+
+	/**
+	 * re-registers the unit if it moved since it was last added or updated.
+	 */
+	public void update(WUnit u) {
+		int[] fp = footprints.get(u);
+		if (fp == null) {
+			return;
+		}
+		if (fp[0] != u.getX() || fp[1] != u.getY() || fp[2] != u.getWidth() || fp[3] != u.getLength()) {
+			unregister(u, fp);
+			fp[0] = u.getX();
+			fp[1] = u.getY();
+			fp[2] = u.getWidth();
+			fp[3] = u.getLength();
+			register(u, fp);
+		}
+	}
+
+	public boolean contains(WUnit u) {
+		return footprints.containsKey(u);
+	}
+
+	/**
+	 * @return true if some unit is registered in cell (x,y).
+	 */
+	public boolean isOccupied(int x, int y) {
+		return occupants[x + y * width] > 0;
+	}
+
+	/**
+	 * @return a number that changes every time units are added, removed or
+	 *         moved.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the first unit covering cell (x,y), or null.
+	 */
+	public WUnit unitAt(int x, int y) {
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			return null;
+		}
+		List<WUnit> l = cells[x + y * width];
+		if (l != null) {
+			for (WUnit u : l) {
+				if (u.isEntityAt(x, y)) {
+					return u;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return a unit (other than pe itself) colliding with the footprint of pe,
+	 *         or null.
+	 */
+	public WUnit collision(S3PhysicalEntity pe) {
+		int x0 = Math.max(0, pe.getX());
+		int y0 = Math.max(0, pe.getY());
+		int x1 = Math.min(width, pe.getX() + pe.getWidth());
+		int y1 = Math.min(height, pe.getY() + pe.getLength());
+		for (int y = y0; y < y1; y++) {
+			for (int x = x0; x < x1; x++) {
+				List<WUnit> l = cells[x + y * width];
+				if (l != null) {
+					for (WUnit u : l) {
+						if (pe.collision(u) && pe.entityID != u.entityID) {
+							return u;
+						}
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return a unit (other than the one with the given entityID) overlapping
+	 *         the w x l footprint with its top-left corner at (x,y), or null.
+	 */
+	public WUnit collision(int x, int y, int w, int l, int entityID) {
+		int x1 = Math.min(width, x + w);
+		int y1 = Math.min(height, y + l);
+		for (int j = Math.max(0, y); j < y1; j++) {
+			for (int i = Math.max(0, x); i < x1; i++) {
+				List<WUnit> cell = cells[i + j * width];
+				if (cell != null) {
+					for (WUnit u : cell) {
+						if (u.entityID != entityID && u.getX() < x + w && x < u.getX() + u.getWidth()
+								&& u.getY() < y + l && y < u.getY() + u.getLength()) {
+							return u;
+						}
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * adds to "out" all the units registered in the cells of the given
+	 * rectangle (clipped to the map), without duplicates.
+	 */
+	public void unitsIn(int x0, int y0, int x1, int y1, List<WUnit> out) {
+		x0 = Math.max(0, x0);
+		y0 = Math.max(0, y0);
+		x1 = Math.min(width, x1);
+		y1 = Math.min(height, y1);
+		for (int y = y0; y < y1; y++) {
+			for (int x = x0; x < x1; x++) {
+				List<WUnit> l = cells[x + y * width];
+				if (l != null) {
+					for (WUnit u : l) {
+						if (!out.contains(u)) {
+							out.add(u);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private void register(WUnit u, int[] fp) {
+		version++;
+		int x1 = Math.min(width, fp[0] + fp[2]);
+		int y1 = Math.min(height, fp[1] + fp[3]);
+		for (int y = Math.max(0, fp[1]); y < y1; y++) {
+			for (int x = Math.max(0, fp[0]); x < x1; x++) {
+				List<WUnit> l = cells[x + y * width];
+				if (l == null) {
+					l = new ArrayList<WUnit>(2);
+					cells[x + y * width] = l;
+				}
+				l.add(u);
+				occupants[x + y * width]++;
+			}
+		}
+	}
+
+	private void unregister(WUnit u, int[] fp) {
+		version++;
+		int x1 = Math.min(width, fp[0] + fp[2]);
+		int y1 = Math.min(height, fp[1] + fp[3]);
+		for (int y = Math.max(0, fp[1]); y < y1; y++) {
+			for (int x = Math.max(0, fp[0]); x < x1; x++) {
+				List<WUnit> l = cells[x + y * width];
+				if (l != null) {
+					for (int i = 0; i < l.size(); i++) {
+						if (l.get(i) == u) {
+							l.remove(i);
+							occupants[x + y * width]--;
+							break;
+						}
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package s3.base;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import s3.entities.WBarracks;
+import s3.entities.WBlacksmith;
+import s3.entities.WFarm;
+import s3.entities.WFortress;
+import s3.entities.WLumberMill;
+import s3.entities.WStable;
+import s3.entities.WTower;
+import s3.entities.WTownhall;
+import s3.entities.WUnit;
+import s3.entities.WWall;
+
+/**
+ * Units of a game grouped by owner and by class. Each group keeps its units in
+ * the same relative order they have in the game unit list, so
+ * "first unit of a type" answers the same as a linear scan would.
+ *
+ * For each owner it also keeps a bitset with one bit per tech-tree building
+ * type that the owner currently has at least one of.
+ */
+class S3UnitRegistry {
+	/** building types that unlock other units, in bit order. */
+	static final List<Class<? extends WUnit>> TECH_TREE_TYPES = Collections.unmodifiableList(
+			Arrays.<Class<? extends WUnit>> asList(WTownhall.class, WBarracks.class, WLumberMill.class,
+					WBlacksmith.class, WTower.class, WFortress.class, WStable.class, WFarm.class, WWall.class));
+
+	private final HashMap<String, HashMap<Class<? extends WUnit>, List<WUnit>>> byOwner = new HashMap<String, HashMap<Class<? extends WUnit>, List<WUnit>>>();
+
+	private final HashMap<String, Integer> techTree = new HashMap<String, Integer>();
+
+	/**
+	 * @return the bit that represents the given type in the tech-tree bitset, or
+	 *         0 if the type is not part of it.
+	 */
+	static int techBit(Class<? extends WUnit> type) {
+		int i = TECH_TREE_TYPES.indexOf(type);
+		return i < 0 ? 0 : 1 << i;
+	}
+
+	public void add(WUnit u) {
+		HashMap<Class<? extends WUnit>, List<WUnit>> types = byOwner.get(u.owner);
+		if (types == null) {
+			types = new HashMap<Class<? extends WUnit>, List<WUnit>>();
+			byOwner.put(u.owner, types);
+		}
+		List<WUnit> l = types.get(u.getClass());
+		if (l == null) {
+			l = new ArrayList<WUnit>();
+			types.put(u.getClass(), l);
+		}
+		l.add(u);
+		if (l.size() == 1) {
+			int bit = techBit(u.getClass());
+			if (bit != 0) {
+				techTree.put(u.owner, getTechTree(u.owner) | bit);
+			}
+		}
+	}
+
+	public void remove(WUnit u) {
+		List<WUnit> l = get(u.owner, u.getClass());
+		for (int i = 0; i < l.size(); i++) {
+			if (l.get(i) == u) {
+				l.remove(i);
+				if (l.isEmpty()) {
+					int bit = techBit(u.getClass());
+					if (bit != 0) {
+						techTree.put(u.owner, getTechTree(u.owner) & ~bit);
+					}
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the units of the given owner and class, in game order. The list
+	 *         must not be modified.
+	 */
+	public List<WUnit> get(String owner, Class<? extends WUnit> type) {
+		HashMap<Class<? extends WUnit>, List<WUnit>> types = byOwner.get(owner);
+		if (types == null) {
+			return Collections.emptyList();
+		}
+		List<WUnit> l = types.get(type);
+		if (l == null) {
+			return Collections.emptyList();
+		}
+		return l;
+	}
+
+	public int getTechTree(String owner) {
+		Integer bits = techTree.get(owner);
+		return bits == null ? 0 : bits;
+	}
+}
@@ -2,9 +2,10 @@ package s3.entities;
 //import java.awt.Rectangle;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import s3.base.S3;
 import s3.base.S3Action;
@@ -230,7 +231,8 @@ public abstract class S3Entity
 		return true;
 	}
 	
-	static private HashMap<String,List<String>> m_listOfFeaturesHash = new HashMap<String,List<String>>();
+	// shared by all the games running in this JVM, which may be played in parallel:
+	static private Map<String,List<String>> m_listOfFeaturesHash = new ConcurrentHashMap<String,List<String>>();
 	
 	@SuppressWarnings("unchecked")
 	public List<String> listOfFeatures() {
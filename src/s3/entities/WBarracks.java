@@ -50,20 +50,20 @@ public class WBarracks extends WBuilding {
 	public void cycle(int m_cycle, S3 m_game, List<S3Action> failedActions) {
 		super.cycle(m_cycle, m_game, failedActions);
 		if (m_cycle % 25 == 0) {
-			WPlayer player = m_game.getPlayer(owner);
-			if (null == m_game.getUnitType(player, WStable.class)) {
+			int techTree = m_game.getTechTree(m_game.getPlayer(owner));
+			if ((techTree & S3.techBit(WStable.class)) == 0) {
 				allowedUnits.remove(WKnight.class.getSimpleName());
 			} else {
 				addAllowed(WKnight.class.getSimpleName());
 			}
 			
-			if (null == m_game.getUnitType(player, WBlacksmith.class)) {
+			if ((techTree & S3.techBit(WBlacksmith.class)) == 0) {
 				allowedUnits.remove(WCatapult.class.getSimpleName());
 			} else {
 				addAllowed(WCatapult.class.getSimpleName());
 			}
 			
-			if (null == m_game.getUnitType(player, WLumberMill.class)) {
+			if ((techTree & S3.techBit(WLumberMill.class)) == 0) {
 				allowedUnits.remove(WArcher.class.getSimpleName());
 			} else {
 				addAllowed(WArcher.class.getSimpleName());
@@ -136,8 +136,8 @@ public class WPeasant extends WTroop {
      * @param m_game
      */
     private void setAllowed(S3 m_game) {
-        WPlayer player = m_game.getPlayer(owner);
-        if (null == m_game.getUnitType(player, WTownhall.class)) {
+        int techTree = m_game.getTechTree(m_game.getPlayer(owner));
+        if ((techTree & S3.techBit(WTownhall.class)) == 0) {
             allowedUnits.remove(WBarracks.class.getSimpleName());
             allowedUnits.remove(WLumberMill.class.getSimpleName());
             allowedUnits.remove(WBlacksmith.class.getSimpleName());
@@ -147,21 +147,21 @@ public class WPeasant extends WTroop {
             addAllowed(WBlacksmith.class.getSimpleName());
         }
 
-        if (null == m_game.getUnitType(player, WLumberMill.class)) {
+        if ((techTree & S3.techBit(WLumberMill.class)) == 0) {
             allowedUnits.remove(WTower.class.getSimpleName());
         } else {
             addAllowed(WTower.class.getSimpleName());
         }
 
-        if (null == m_game.getUnitType(player, WBarracks.class)
-                || null == m_game.getUnitType(player, WLumberMill.class)
-                || null == m_game.getUnitType(player, WBlacksmith.class)) {
+        int fortressRequirements = S3.techBit(WBarracks.class) | S3.techBit(WLumberMill.class)
+                | S3.techBit(WBlacksmith.class);
+        if ((techTree & fortressRequirements) != fortressRequirements) {
             allowedUnits.remove(WFortress.class.getSimpleName());
         } else {
             addAllowed(WFortress.class.getSimpleName());
         }
 
-        if (null == m_game.getUnitType(player, WFortress.class)) {
+        if ((techTree & S3.techBit(WFortress.class)) == 0) {
             allowedUnits.remove(WStable.class.getSimpleName());
         } else {
             addAllowed(WStable.class.getSimpleName());
@@ -278,6 +278,7 @@ public class WPeasant extends WTroop {
                     Pair<Integer, Integer> loc = game.findFreeSpace(getX(), getY(), 1);
                     setX(loc.m_a);
                     setY(loc.m_b);
+                    game.updateUnitPosition(this);
                 }
             }
         } else {
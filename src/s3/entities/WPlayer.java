@@ -12,7 +12,6 @@ import gatech.mmpm.Entity;
 
 public class WPlayer extends S3Entity {
 	public static String colors[]={"blue/","red/"};
-	public static int playerCount = 0;
 
 	private int gold;
 
@@ -31,8 +30,6 @@ public class WPlayer extends S3Entity {
 	}
 
 	public WPlayer() {
-		//set the playerColor
-		playerColor = colors[playerCount++];
 	}
 
 	public WPlayer(WPlayer incoming) {
@@ -72,6 +69,10 @@ public class WPlayer extends S3Entity {
 		return playerColor;
 	}
 
+	public void setColor(String color) {
+		playerColor = color;
+	}
+
     public Entity toD2Entity() {
 		s3.mmpm.entities.WPlayer ret;
 
@@ -10,13 +10,45 @@ import java.awt.*;
 import java.util.List;
 
 import s3.ai.AStar;
+import s3.ai.path.CooperativePlanner;
+import s3.ai.path.DStarLite;
+import s3.ai.path.FlowField;
 import s3.base.PlayerInput;
 import s3.base.S3;
 import s3.base.S3Action;
 import s3.util.Pair;
 
 public abstract class WTroop extends WUnit {
+	/**
+	 * if true, units going to a place several units are going to follow a
+	 * shared flow field instead of planning a path each.
+	 */
+	public static boolean FLOW_FIELDS = true;
+
+	/**
+	 * if true, once the path of a unit gets blocked it keeps a D* Lite search
+	 * that is repaired step by step, instead of searching again from scratch
+	 * every time it bumps into something.
+	 */
+	public static boolean REPLANNING = true;
+
+	/** cycles a unit waits for the way to clear before giving up. */
+	public static int REPLAN_PATIENCE = 8;
+
+	/**
+	 * if true, units plan a few steps at a time against the cells other units
+	 * have reserved (see CooperativePlanner), so that they do not get in each
+	 * other's way in narrow places.
+	 */
+	public static boolean COOPERATIVE = false;
+
 	protected AStar pathPlanner;
+	protected DStarLite replanner;
+	protected int replannerWaits = 0;
+
+	/** steps planned by the CooperativePlanner, from cycle windowStart. */
+	protected int[] window;
+	protected int windowIndex, windowStart, windowGoal;
 
 	protected List<Pair<Double, Double>> path;
 
@@ -173,20 +205,49 @@ public abstract class WTroop extends WUnit {
 			cleanup(game);
 			status = null;
 		} else {
+			if (COOPERATIVE && moveCooperatively(game, a_x, a_y)) {
+				return;
+			}
+
+			// once the way got blocked, keep repairing the same search:
+			if (replanner != null) {
+				if (replanner.getGoalX() == a_x && replanner.getGoalY() == a_y) {
+					followReplanner(game);
+					return;
+				}
+				releaseReplanner(game);
+			}
+
+			// units going to the same place share a flow field; A* is only used
+			// when there is none, or when other units are in the way:
+			if (pathPlanner == null && FLOW_FIELDS) {
+				FlowField field = game.getPathfinding().getFlowFields().request(a_x, a_y,
+						Math.max(getWidth(), getLength()), entityID);
+				int next = (field == null ? -1 : field.nextStep(x, y, this, game));
+				if (next >= 0) {
+					x = next % game.getMap().getWidth();
+					y = next / game.getMap().getWidth();
+					game.updateUnitPosition(this);
+					return;
+				}
+			}
+
 			// init planner
 			if (pathPlanner == null) {
 				pathPlanner = new AStar(x, y, a_x, a_y, this, game);
-				path = pathPlanner.computePath();
+				pathPlanner.startPath();
 				pathIndex = 0;
 			}
 
+			// wait where we are until the path is ready
+			if (pathPlanner.isPlanning()) {
+				return;
+			}
+			path = pathPlanner.getPath();
+
 			// check that a path exists
 			if (null == path) {
-				WPlayer player = getPlayer(game);
-				if (player.getInputType() == PlayerInput.INPUT_MOUSE) {
-					game.setMessage("Can't get to that location.");
-				}
-				cleanup(game);
+				cannotGetThere(game);
 				return;
 			}
 
@@ -194,6 +255,11 @@ public abstract class WTroop extends WUnit {
 				x = path.get(pathIndex).m_a.intValue();
 				y = path.get(pathIndex).m_b.intValue();
 				pathIndex++;
+			} else if (pathPlanner.isPartial()) {
+				// plan the next part of the way
+				pathPlanner = null;
+				moveTowardsTarget(game, a_x, a_y);
+				return;
 			} else {
 				cleanup(game);
 				return;
@@ -204,8 +270,128 @@ public abstract class WTroop extends WUnit {
 				pathPlanner = null;
 				x = previous_x;
 				y = previous_y;
-				moveTowardsTarget(game, a_x, a_y);
+				if (REPLANNING) {
+					releaseReplanner(game);
+					if (!isValidGoal(game, a_x, a_y)) {
+						// as A* did, which gave no path for such goals
+						cannotGetThere(game);
+						return;
+					}
+					replanner = game.getPathfinding().getReplanner(x, y, a_x, a_y, Math.max(getWidth(), getLength()));
+					replannerWaits = 0;
+					followReplanner(game);
+				} else {
+					moveTowardsTarget(game, a_x, a_y);
+				}
+			} else {
+				game.updateUnitPosition(this);
+			}
+		}
+	}
+
+	/**
+	 * takes the next step planned by the CooperativePlanner, planning the next
+	 * steps first if needed.
+	 *
+	 * @return false if the goal is taken or cannot be reached: then the unit
+	 *         should move on its own.
+	 */
+	private boolean moveCooperatively(S3 game, int a_x, int a_y) {
+		int width = game.getMap().getWidth();
+		int goal = a_x + a_y * width;
+		if (window == null || windowGoal != goal || windowIndex >= Math.max(1, window.length / 2)
+				|| windowStart + windowIndex * speed != game.getCycle()) {
+			CooperativePlanner planner = game.getPathfinding().getCooperativePlanner();
+			window = null;
+			if (!game.isPassable(this, a_x, a_y)) {
+				planner.release(entityID);
+				return false;
 			}
+			window = planner.plan(game, this, a_x, a_y, speed);
+			if (window == null || window.length == 0) {
+				window = null;
+				return false;
+			}
+			windowIndex = 0;
+			windowStart = game.getCycle();
+			windowGoal = goal;
+		}
+		int next = window[windowIndex++];
+		if (next != x + y * width) {
+			if (!game.isPassable(this, next % width, next / width)) {
+				// someone that does not reserve cells is in the way: wait, and
+				// plan again next time
+				window = null;
+				return true;
+			}
+			x = next % width;
+			y = next / width;
+			game.updateUnitPosition(this);
+		}
+		return true;
+	}
+
+	/**
+	 * takes a step along the path of the replanner, or waits for the way to
+	 * clear if it is blocked.
+	 */
+	private void followReplanner(S3 game) {
+		int next = replanner.nextStep(x, y, this, game);
+		game.getPathfinding().getScheduler().charge(replanner.takeExpansions());
+		if (next >= 0) {
+			replannerWaits = 0;
+			x = next % game.getMap().getWidth();
+			y = next / game.getMap().getWidth();
+			game.updateUnitPosition(this);
+		} else if (++replannerWaits > REPLAN_PATIENCE) {
+			cannotGetThere(game);
+		}
+	}
+
+	/**
+	 * @return whether (a_x,a_y) is in the map and the unit could stand there
+	 *         (rangedLoc() gives (-1,-1) when there is no free cell around the
+	 *         target).
+	 */
+	private boolean isValidGoal(S3 game, int a_x, int a_y) {
+		return a_x >= 0 && a_y >= 0 && a_x < game.getMap().getWidth() && a_y < game.getMap().getHeight()
+				&& game.isPassable(this, a_x, a_y);
+	}
+
+	private void releaseReplanner(S3 game) {
+		if (replanner != null) {
+			game.getPathfinding().releaseReplanner(replanner);
+			replanner = null;
+		}
+	}
+
+	private void cannotGetThere(S3 game) {
+		WPlayer player = getPlayer(game);
+		if (player.getInputType() == PlayerInput.INPUT_MOUSE) {
+			game.setMessage("Can't get to that location.");
+		}
+		cleanup(game);
+	}
+
+	/**
+	 * @return true if the unit is waiting for its path to be planned.
+	 */
+	public boolean isPlanning() {
+		return pathPlanner != null && pathPlanner.isPlanning();
+	}
+
+	/**
+	 * gives up on the path being planned, if any, and on the cells reserved
+	 * for the next steps.
+	 */
+	public void stopPlanning(S3 game) {
+		if (pathPlanner != null) {
+			pathPlanner.cancel();
+		}
+		releaseReplanner(game);
+		if (window != null) {
+			game.getPathfinding().getCooperativePlanner().release(entityID);
+			window = null;
 		}
 	}
 
@@ -213,6 +399,7 @@ public abstract class WTroop extends WUnit {
 	 * cleans up unit items after finishing an action.
 	 */
 	protected void cleanup(S3 game) {
+		stopPlanning(game);
 		pathPlanner = null;
 		path = null;
 		pathIndex = -1;
@@ -338,9 +525,15 @@ public abstract class WTroop extends WUnit {
 		return new Pair<Integer, Integer>(bestx, besty);
 	}
 
+	/**
+	 * @return the number of steps to the closest cell from which the target is
+	 *         in range (over the static obstacles of the map), or -1 if there
+	 *         is none: see DistanceOracle.
+	 */
 	public int distance(WUnit target, S3 game) {
-		Pair<Integer, Integer> loc = rangedLoc(target, game);
-		return AStar.pathDistance(x, y, loc.m_a, loc.m_b, this, game);
+		return game.getPathfinding().getDistanceOracle(Math.max(getWidth(), getLength())).distance(x, y,
+				target.getX() - range, target.getY() - range, target.getX() + target.getWidth() + range,
+				target.getY() + target.getLength() + range);
 	}
 
 	public int getActualX() {
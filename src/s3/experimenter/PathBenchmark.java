@@ -0,0 +1,335 @@
+package s3.experimenter;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import s3.ai.AStar;
+import s3.ai.path.PlannerStrategy;
+import s3.base.S3;
+import s3.base.S3Headless;
+import s3.entities.WTroop;
+import s3.entities.WUnit;
+import s3.util.Pair;
+
+/**
+ * Measures the path planner on its own, outside of the game loop, so that
+ * changes to it can be compared: every map of a folder is loaded into a
+ * headless S3, seeded start/goal pairs are drawn at a few distance classes
+ * (including unreachable goals), and each variant of AStar plans all of them
+ * for a few warm up rounds and then a few measured rounds.
+ *
+ * For each map x variant x distance class it reports the throughput (paths
+ * per second, mean and standard deviation over the measured rounds), the
+ * bytes allocated per path (from the allocation counter of the thread, when
+ * the JVM has one) and how many paths were optimal, longer than the shortest
+ * path (and by how much at most) or wrong (no path to a reachable goal, or a
+ * path to an unreachable one). Shortest paths are computed with a breadth
+ * first search over the same cells the planner can use (the units standing
+ * on the map block cells too).
+ *
+ * Results are printed and written to benchmark.csv in the output folder, in
+ * a stable order, so two runs can be diffed.
+ *
+ * usage: PathBenchmark [maps folder] [output folder] [pairs per class]
+ *                      [warm up rounds] [measured rounds] [seed]
+ */
+public class PathBenchmark {
+
+    private static final String[] CLASSES = { "short", "medium", "long", "unreachable" };
+    // path lengths of each class (the unreachable class has none):
+    private static final int[] MIN_LENGTH = { 1, 9, 33 };
+    private static final int[] MAX_LENGTH = { 8, 32, Integer.MAX_VALUE };
+
+    private static final String[] VARIANTS = { "A*", "JPS", "hierarchical", "hierarchical+cache" };
+
+    // planning a path can take several legs (hierarchical paths are
+    // partial): give up after this many.
+    private static final int MAX_LEGS = 256;
+
+    private final int pairsPerClass;
+    private final int warmUpRounds;
+    private final int measuredRounds;
+    private final long seed;
+
+    public PathBenchmark(int pairsPerClass, int warmUpRounds, int measuredRounds, long seed) {
+        this.pairsPerClass = pairsPerClass;
+        this.warmUpRounds = warmUpRounds;
+        this.measuredRounds = measuredRounds;
+        this.seed = seed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mapsFolder = (args.length > 0 ? args[0] : "maps");
+        String outputFolder = (args.length > 1 ? args[1] : "benchmark");
+        int pairs = (args.length > 2 ? Integer.parseInt(args[2]) : 50);
+        int warmUp = (args.length > 3 ? Integer.parseInt(args[3]) : 3);
+        int measured = (args.length > 4 ? Integer.parseInt(args[4]) : 5);
+        long seed = (args.length > 5 ? Long.parseLong(args[5]) : 0);
+
+        File[] files = new File(mapsFolder).listFiles();
+        if (files == null) {
+            System.err.println("No such folder: " + mapsFolder);
+            return;
+        }
+        Arrays.sort(files);
+        List<String> maps = new ArrayList<String>();
+        for (File f : files) {
+            if (f.getName().endsWith(".xml")) {
+                maps.add(f.getPath());
+            }
+        }
+        new PathBenchmark(pairs, warmUp, measured, seed).run(maps, outputFolder);
+    }
+
+    public void run(List<String> maps, String outputFolder) throws Exception {
+        new File(outputFolder).mkdirs();
+        Writer csv = new FileWriter(outputFolder + "/benchmark.csv");
+        csv.write("map,variant,class,pairs,paths_per_s,paths_per_s_sd,bytes_per_path,optimal,longer,max_excess,wrong\n");
+        System.out.println(String.format("%-22s %-20s %-12s %6s %12s %10s %8s %7s %6s %6s", "map", "variant",
+                "class", "pairs", "paths/s", "bytes/path", "optimal", "longer", "excess", "wrong"));
+        boolean hierarchical = AStar.HIERARCHICAL;
+        boolean cache = AStar.CACHE;
+        try {
+            for (String map : maps) {
+                benchmark(map, csv);
+            }
+        } finally {
+            AStar.HIERARCHICAL = hierarchical;
+            AStar.CACHE = cache;
+            csv.close();
+        }
+    }
+
+    private void benchmark(String map, Writer csv) throws Exception {
+        S3 game = S3Headless.loadGame(map);
+        WTroop troop = null;
+        for (WUnit u : game.getUnits()) {
+            if (u instanceof WTroop && u.getWidth() == 1 && u.getLength() == 1) {
+                troop = (WTroop) u;
+                break;
+            }
+        }
+        String name = new File(map).getName();
+        if (troop == null) {
+            System.out.println(name + ": no troop to plan paths for, skipped");
+            return;
+        }
+
+        Random r = new Random(seed);
+        List<int[]>[] pairs = drawPairs(game, troop, r);
+
+        for (String variant : VARIANTS) {
+            for (int c = 0; c < CLASSES.length; c++) {
+                if (pairs[c].isEmpty()) {
+                    continue;
+                }
+                // a new game for every variant and class, so that what one
+                // leaves behind (caches) does not help the next one:
+                S3 g = S3Headless.loadGame(map);
+                WUnit unit = g.getUnit(troop.entityID);
+                Result result = measure(variant, g, unit, pairs[c]);
+                System.out.println(String.format("%-22s %-20s %-12s %6d %12.0f %10d %8d %7d %6d %6d", name, variant,
+                        CLASSES[c], pairs[c].size(), result.mean, result.bytes, result.optimal, result.longer,
+                        result.maxExcess, result.wrong));
+                csv.write(name + "," + variant + "," + CLASSES[c] + "," + pairs[c].size() + ","
+                        + String.format("%.0f,%.0f", result.mean, result.sd) + "," + result.bytes + ","
+                        + result.optimal + "," + result.longer + "," + result.maxExcess + "," + result.wrong + "\n");
+                csv.flush();
+            }
+        }
+    }
+
+    private static class Result {
+        double mean, sd;
+        long bytes = -1;
+        int optimal, longer, maxExcess, wrong;
+    }
+
+    private Result measure(String variant, S3 game, WUnit unit, List<int[]> pairs) {
+        AStar.HIERARCHICAL = !variant.equals("A*") && !variant.equals("JPS");
+        AStar.CACHE = variant.endsWith("cache");
+        PlannerStrategy strategy = null;
+        if (variant.equals("A*")) {
+            strategy = PlannerStrategy.ASTAR;
+        } else if (variant.equals("JPS")) {
+            strategy = PlannerStrategy.JUMP_POINTS;
+        }
+
+        Result result = new Result();
+        for (int i = 0; i < warmUpRounds; i++) {
+            for (int[] p : pairs) {
+                plan(game, unit, p, strategy);
+            }
+        }
+        double[] rates = new double[measuredRounds];
+        long bytes = 0;
+        for (int i = 0; i < measuredRounds; i++) {
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            for (int[] p : pairs) {
+                int length = plan(game, unit, p, strategy);
+                if (i == 0) {
+                    check(p[4], length, result);
+                }
+            }
+            long time = System.nanoTime() - start;
+            bytes += allocatedBytes() - allocated;
+            rates[i] = pairs.size() * 1e9 / Math.max(1, time);
+        }
+        for (double rate : rates) {
+            result.mean += rate / rates.length;
+        }
+        for (double rate : rates) {
+            result.sd += (rate - result.mean) * (rate - result.mean) / rates.length;
+        }
+        result.sd = Math.sqrt(result.sd);
+        if (allocatedBytes() >= 0 && measuredRounds > 0) {
+            result.bytes = bytes / (measuredRounds * pairs.size());
+        }
+        return result;
+    }
+
+    private static void check(int shortest, int length, Result result) {
+        if (shortest < 0 || length < 0) {
+            if (shortest == length) {
+                result.optimal++;
+            } else {
+                result.wrong++;
+            }
+        } else if (length == shortest) {
+            result.optimal++;
+        } else {
+            result.longer++;
+            result.maxExcess = Math.max(result.maxExcess, length - shortest);
+        }
+    }
+
+    /**
+     * plans the path for a pair, leg after leg if the planner only gives part
+     * of it at a time.
+     *
+     * @return its length, or -1 if there is none.
+     */
+    private static int plan(S3 game, WUnit unit, int[] pair, PlannerStrategy strategy) {
+        double x = pair[0];
+        double y = pair[1];
+        int length = 0;
+        for (int legs = 0; legs < MAX_LEGS; legs++) {
+            AStar a = new AStar(x, y, pair[2], pair[3], unit, game);
+            a.setStrategy(strategy);
+            List<Pair<Double, Double>> path = a.computePath();
+            if (path == null) {
+                return -1;
+            }
+            length += path.size();
+            if (!a.isPartial() || path.isEmpty()) {
+                return length;
+            }
+            x = path.get(path.size() - 1).m_a;
+            y = path.get(path.size() - 1).m_b;
+        }
+        return -1;
+    }
+
+    /**
+     * @return pairsPerClass (sx, sy, gx, gy, shortest length) pairs of each
+     *         class, or less if the map does not have that many.
+     */
+    private List<int[]>[] drawPairs(S3 game, WUnit unit, Random r) {
+        int width = game.getMap().getWidth();
+        int height = game.getMap().getHeight();
+        List<int[]>[] pairs = newPairLists(CLASSES.length);
+        for (int c = 0; c < CLASSES.length; c++) {
+            pairs[c] = new ArrayList<int[]>();
+        }
+        for (int tries = 0; tries < pairsPerClass * 64 && !isFull(pairs); tries++) {
+            int sx = r.nextInt(width);
+            int sy = r.nextInt(height);
+            if (!game.isPassable(unit, sx, sy)) {
+                continue;
+            }
+            int[] distance = distances(game, unit, sx, sy);
+            // a few goals per start, one per class at most:
+            for (int c = 0; c < CLASSES.length; c++) {
+                if (pairs[c].size() >= pairsPerClass) {
+                    continue;
+                }
+                for (int k = 0; k < 16; k++) {
+                    int goal = r.nextInt(width * height);
+                    int d = distance[goal];
+                    boolean matches = (c == CLASSES.length - 1 ? d < 0 && game.isPassable(unit, goal % width,
+                            goal / width) : d >= MIN_LENGTH[c] && d <= MAX_LENGTH[c]);
+                    if (matches) {
+                        pairs[c].add(new int[] { sx, sy, goal % width, goal / width, d });
+                        break;
+                    }
+                }
+            }
+        }
+        return pairs;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static List<int[]>[] newPairLists(int n) {
+        return new List[n];
+    }
+
+    private boolean isFull(List<int[]>[] pairs) {
+        for (List<int[]> l : pairs) {
+            if (l.size() < pairsPerClass) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the length of the shortest path from (sx,sy) to every cell, or
+     *         -1 for the cells that cannot be reached.
+     */
+    private static int[] distances(S3 game, WUnit unit, int sx, int sy) {
+        int width = game.getMap().getWidth();
+        int height = game.getMap().getHeight();
+        int[] distance = new int[width * height];
+        Arrays.fill(distance, -1);
+        int[] queue = new int[width * height];
+        int head = 0, tail = 0;
+        distance[sx + sy * width] = 0;
+        queue[tail++] = sx + sy * width;
+        int[][] moves = { { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 } };
+        while (head < tail) {
+            int c = queue[head++];
+            for (int[] m : moves) {
+                int x = c % width + m[0];
+                int y = c / width + m[1];
+                if (x >= 0 && x < width && y >= 0 && y < height && distance[x + y * width] < 0
+                        && game.isPassable(unit, x, y)) {
+                    distance[x + y * width] = distance[c] + 1;
+                    queue[tail++] = x + y * width;
+                }
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * @return the number of bytes allocated by this thread so far, or -1 if
+     *         the JVM does not count them.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+            if (b.isThreadAllocatedMemorySupported() && b.isThreadAllocatedMemoryEnabled()) {
+                return b.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
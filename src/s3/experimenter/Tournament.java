@@ -0,0 +1,225 @@
+package s3.experimenter;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import s3.base.PlayerInput;
+import s3.base.S3Headless;
+
+/**
+ * Plays every map x AI x AI x repetition match of an experiment, several
+ * matches at a time. Each match is a headless game with its own S3 instance
+ * and AIs, so matches can run side by side on a fixed pool of worker threads.
+ *
+ * Results are written as they come in: the score matrix of
+ * results-formatted.txt is written in the same order and layout as the
+ * sequential Experimenter used to, as soon as each score is known, and every
+ * finished match gets one line in matches.csv (in completion order).
+ */
+public class Tournament {
+
+    private final List<String> maps;
+    private final String[] ais;
+    private final int repetitions;
+    private final int maxCycles;
+    private final int threads;
+
+    // one score per map x ai1 x ai2, plus the number of repetitions still
+    // missing for each of them:
+    private double score[][][];
+    private int pending[][][];
+    // index (in the order the scores are written) of the next score to write:
+    private int nextScore;
+
+    private Writer results;
+    private Writer matches;
+
+    public Tournament(List<String> maps, String[] ais, int repetitions, int maxCycles, int threads) {
+        this.maps = maps;
+        this.ais = ais;
+        this.repetitions = repetitions;
+        this.maxCycles = maxCycles;
+        this.threads = threads;
+    }
+
+    public Tournament(List<String> maps, String[] ais, int repetitions, int maxCycles) {
+        this(maps, ais, repetitions, maxCycles, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * plays all the matches, and writes results-formatted.txt and matches.csv
+     * in outputFolder.
+     *
+     * @return the score matrix: score[map][ai1][ai2] is the number of games
+     *         that ai1 won against ai2 on map (ties count as half a win).
+     */
+    public double[][][] run(String outputFolder) throws IOException, InterruptedException {
+        score = new double[maps.size()][ais.length][ais.length];
+        pending = new int[maps.size()][ais.length][ais.length];
+        nextScore = 0;
+
+        new File(outputFolder).mkdirs();
+        results = new FileWriter(outputFolder + "/results-formatted.txt");
+        matches = new FileWriter(outputFolder + "/matches.csv");
+        matches.write("id,map,ai1,ai2,repetition,winner,cycles,time_ms\n");
+        matches.flush();
+
+        List<Match> all = new LinkedList<Match>();
+        for (int nMap = 0; nMap < maps.size(); nMap++) {
+            for (int ai1i = 0; ai1i < ais.length; ai1i++) {
+                for (int ai2i = 0; ai2i < ais.length; ai2i++) {
+                    pending[nMap][ai1i][ai2i] = repetitions;
+                    for (int k = 0; k < repetitions; k++) {
+                        all.add(new Match(nMap, ai1i, ai2i, k));
+                    }
+                }
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (Match m : all) {
+                pool.execute(m);
+            }
+            // repetitions = 0 leaves nothing to wait for, but the matrix
+            // still has to be written:
+            synchronized (this) {
+                writeFinishedScores();
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            pool.shutdownNow();
+            results.close();
+            matches.close();
+        }
+        return score;
+    }
+
+    /**
+     * plays a single match between two AIs, without displaying it. The winner
+     * of the result is the AI that won, or null in case of a tie.
+     */
+    static MatchResult play(String map, String ai1, String ai2, int maxCycles) throws Exception {
+        List<PlayerInput> players = new ArrayList<PlayerInput>();
+        players.add(player("player1", ai1));
+        players.add(player("player2", ai2));
+
+        long start = System.currentTimeMillis();
+        S3Headless game = new S3Headless("maps/" + map, 50, players, null);
+        game.gameLoop(maxCycles);
+        long time = System.currentTimeMillis() - start;
+
+        String winner = game.getWinner();
+        if ("player1".equals(winner)) {
+            winner = ai1;
+        } else if ("player2".equals(winner)) {
+            winner = ai2;
+        } else {
+            winner = null;
+        }
+        return new MatchResult(winner, game.getGame().getCycle(), time);
+    }
+
+    private static PlayerInput player(String id, String ai) {
+        PlayerInput pi = new PlayerInput();
+        pi.m_inputType = PlayerInput.INPUT_AI;
+        pi.m_playerID = id;
+        pi.m_playerName = id;
+        pi.AIType = ai;
+        return pi;
+    }
+
+    private synchronized void finished(Match m, MatchResult r) throws IOException {
+        // a game that could not be played counts as a tie, like it always has:
+        String winner = (r == null ? null : r.winner);
+        if (winner == null) {
+            // TIE:
+            score[m.map][m.ai1][m.ai2] += 0.5;
+        } else if (winner.equals(ais[m.ai1])) {
+            score[m.map][m.ai1][m.ai2] += 1.0;
+        }
+        matches.write(m.id() + "," + maps.get(m.map) + "," + ais[m.ai1] + "," + ais[m.ai2] + "," + m.repetition
+                + "," + (r == null ? "error,," : (winner == null ? "tie" : winner) + "," + r.cycles + "," + r.time)
+                + "\n");
+        matches.flush();
+
+        pending[m.map][m.ai1][m.ai2]--;
+        writeFinishedScores();
+    }
+
+    /**
+     * writes all the scores that are complete and whose predecessors in the
+     * matrix have already been written.
+     */
+    private void writeFinishedScores() throws IOException {
+        int perMap = ais.length * ais.length;
+        while (nextScore < maps.size() * perMap) {
+            int nMap = nextScore / perMap;
+            int ai1i = (nextScore % perMap) / ais.length;
+            int ai2i = nextScore % ais.length;
+            if (pending[nMap][ai1i][ai2i] > 0) {
+                break;
+            }
+            results.write(score[nMap][ai1i][ai2i] + ",");
+            if (ai2i == ais.length - 1) {
+                results.write("\n");
+                if (ai1i == ais.length - 1) {
+                    results.write("\n\n");
+                }
+            }
+            nextScore++;
+        }
+        results.flush();
+    }
+
+    static class MatchResult {
+        final String winner;
+        final int cycles;
+        final long time;
+
+        MatchResult(String winner, int cycles, long time) {
+            this.winner = winner;
+            this.cycles = cycles;
+            this.time = time;
+        }
+    }
+
+    private class Match implements Runnable {
+        final int map, ai1, ai2, repetition;
+
+        Match(int map, int ai1, int ai2, int repetition) {
+            this.map = map;
+            this.ai1 = ai1;
+            this.ai2 = ai2;
+            this.repetition = repetition;
+        }
+
+        String id() {
+            return "M" + map + "-" + ais[ai1] + "-vs-" + ais[ai2] + "-" + repetition;
+        }
+
+        public void run() {
+            MatchResult r = null;
+            try {
+                r = play(maps.get(map), ais[ai1], ais[ai2], maxCycles);
+            } catch (Exception e) {
+                System.err.println("Error playing " + id() + ":");
+                e.printStackTrace();
+            }
+            try {
+                finished(this, r);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
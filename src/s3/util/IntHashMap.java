@@ -0,0 +1,185 @@
+package s3.util;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive int keys to objects (open addressing, linear
+ * probing). Avoids boxing the key on every lookup, which matters for maps that
+ * are queried many times per game cycle.
+ */
+public class IntHashMap<V> {
+	private static final int FREE = Integer.MIN_VALUE;
+
+	private int[] keys;
+	private Object[] values;
+	private int size = 0;
+	private int mask;
+
+	/** the value associated to FREE itself, which cannot be stored in "keys". */
+	private V freeValue = null;
+	private boolean hasFreeKey = false;
+
+	public IntHashMap() {
+		this(16);
+	}
+
+	public IntHashMap(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		if (key == FREE) {
+			return freeValue;
+		}
+		int i = slot(key);
+		while (keys[i] != FREE) {
+			if (keys[i] == key) {
+				return (V) values[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	public boolean containsKey(int key) {
+		if (key == FREE) {
+			return hasFreeKey;
+		}
+		int i = slot(key);
+		while (keys[i] != FREE) {
+			if (keys[i] == key) {
+				return true;
+			}
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the previous value associated to key, or null.
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if (key == FREE) {
+			V old = freeValue;
+			if (!hasFreeKey) {
+				size++;
+			}
+			hasFreeKey = true;
+			freeValue = value;
+			return old;
+		}
+		int i = slot(key);
+		while (keys[i] != FREE) {
+			if (keys[i] == key) {
+				V old = (V) values[i];
+				values[i] = value;
+				return old;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		if (size * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+		return null;
+	}
+
+	/**
+	 * @return the value that was associated to key, or null.
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		if (key == FREE) {
+			V old = freeValue;
+			if (hasFreeKey) {
+				size--;
+			}
+			hasFreeKey = false;
+			freeValue = null;
+			return old;
+		}
+		int i = slot(key);
+		while (keys[i] != FREE) {
+			if (keys[i] == key) {
+				V old = (V) values[i];
+				shiftBack(i);
+				size--;
+				return old;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, FREE);
+		Arrays.fill(values, null);
+		hasFreeKey = false;
+		freeValue = null;
+		size = 0;
+	}
+
+	private int slot(int key) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * backward-shift deletion: closes the gap left at "gap" so that probing
+	 * sequences of the remaining keys stay unbroken.
+	 */
+	private void shiftBack(int gap) {
+		int i = (gap + 1) & mask;
+		while (keys[i] != FREE) {
+			int home = slot(keys[i]);
+			// move the entry back if its home slot is not in (gap, i]
+			if (((i - home) & mask) >= ((i - gap) & mask)) {
+				keys[gap] = keys[i];
+				values[gap] = values[i];
+				gap = i;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[gap] = FREE;
+		values[gap] = null;
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		Arrays.fill(keys, FREE);
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != FREE) {
+				int j = slot(oldKeys[i]);
+				while (keys[j] != FREE) {
+					j = (j + 1) & mask;
+				}
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+}